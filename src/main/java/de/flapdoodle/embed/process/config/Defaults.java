@@ -29,7 +29,9 @@ import de.flapdoodle.embed.process.extract.UUIDTempNaming;
 import de.flapdoodle.embed.process.io.directories.Directory;
 import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
 import de.flapdoodle.embed.process.io.directories.UserHome;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
 import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+import de.flapdoodle.embed.process.io.progress.ThrottlingProgressListener;
 import de.flapdoodle.embed.process.store.ArtifactStore;
 import de.flapdoodle.embed.process.store.Downloader;
 
@@ -65,7 +67,7 @@ public abstract class Defaults {
 				.build();
 	}
 
-	public static StandardConsoleProgressListener progressListener() {
-		return new StandardConsoleProgressListener();
+	public static ProgressListener progressListener() {
+		return new ThrottlingProgressListener(new StandardConsoleProgressListener());
 	}
 }
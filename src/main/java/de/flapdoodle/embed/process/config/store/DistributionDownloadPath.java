@@ -23,10 +23,20 @@
  */
 package de.flapdoodle.embed.process.config.store;
 
+import java.util.Collections;
+import java.util.List;
+
 import de.flapdoodle.embed.process.distribution.Distribution;
 
 
 @FunctionalInterface
 public interface DistributionDownloadPath {
 	String getPath(Distribution distribution);
+
+	/**
+	 * mirrors in order of preference, the first one is the same as getPath
+	 */
+	default List<String> getPaths(Distribution distribution) {
+		return Collections.singletonList(getPath(distribution));
+	}
 }
@@ -23,6 +23,8 @@
  */
 package de.flapdoodle.embed.process.config.store;
 
+import java.util.Optional;
+
 import org.immutables.value.Value;
 import org.immutables.value.Value.Parameter;
 
@@ -39,6 +41,17 @@ public interface DistributionPackage {
 	
 	@Parameter
 	String archivePath();
+
+	/**
+	 * sha-256 of the archive (hex), downloads which do not match are rejected
+	 */
+	Optional<String> expectedSha256();
+
+	/**
+	 * path of a sha-256 file (sha256sum format) relative to the download path,
+	 * used if no expectedSha256 is set, e.g. archivePath + ".sha256"
+	 */
+	Optional<String> sha256Path();
 	
 	static DistributionPackage of(ArchiveType archiveType, FileSet fileSet, String path) {
 		return ImmutableDistributionPackage.of(archiveType, fileSet, path);
@@ -56,6 +56,21 @@ public interface DownloadConfig {
 	default TimeoutConfig getTimeoutConfig() {
 		return TimeoutConfig.defaults();
 	}
+
+	@Default
+	default RetryConfig getRetryConfig() {
+		return RetryConfig.defaults();
+	}
+
+	@Default
+	default DownloadLimits getDownloadLimits() {
+		return DownloadLimits.unlimited();
+	}
+
+	@Default
+	default StoreLayout getStoreLayout() {
+		return StoreLayout.ArchivePath;
+	}
 	
 	Optional<ProxyFactory> proxyFactory();
 
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.config.store;
+
+import java.util.Optional;
+
+import org.immutables.value.Value;
+
+/**
+ * limits shared by all downloads in this jvm with the same limits
+ */
+@Value.Immutable
+public interface DownloadLimits {
+
+	/**
+	 * downloads running at the same time, others wait
+	 */
+	Optional<Integer> maxConcurrentDownloads();
+
+	/**
+	 * bandwidth of all downloads together
+	 */
+	Optional<Long> maxBytesPerSecond();
+
+	@Value.Check
+	default void checkLimits() {
+		if (maxConcurrentDownloads().isPresent() && maxConcurrentDownloads().get() < 1) {
+			throw new IllegalArgumentException("maxConcurrentDownloads < 1: " + maxConcurrentDownloads().get());
+		}
+		if (maxBytesPerSecond().isPresent() && maxBytesPerSecond().get() < 1) {
+			throw new IllegalArgumentException("maxBytesPerSecond < 1: " + maxBytesPerSecond().get());
+		}
+	}
+
+	static ImmutableDownloadLimits unlimited() {
+		return builder().build();
+	}
+
+	static ImmutableDownloadLimits.Builder builder() {
+		return ImmutableDownloadLimits.builder();
+	}
+}
@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.regex.Pattern;
 
 import org.immutables.value.Value;
-import org.immutables.value.Value.Auxiliary;
 import org.immutables.value.Value.Check;
 import org.immutables.value.Value.Parameter;
 
@@ -55,7 +54,10 @@ public interface FileSet {
 		@Parameter
 		protected abstract UncompiledPattern uncompiledMatchingPattern();
 		
-		@Auxiliary
+		/**
+		 * compiled once per entry
+		 */
+		@Value.Lazy
 		public Pattern matchingPattern() {
 			return uncompiledMatchingPattern().compile();
 		}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.config.store;
+
+import org.immutables.value.Value;
+
+@Value.Immutable
+public interface RetryConfig {
+
+	int getMaxRetries();
+
+	int getInitialDelay();
+
+	int getMaxDelay();
+
+	/**
+	 * capped exponential backoff: initialDelay, 2*initialDelay, 4*initialDelay ... maxDelay
+	 */
+	default long delay(int retry) {
+		long delay = getInitialDelay();
+		for (int i = 1; i < retry && delay < getMaxDelay(); i++) {
+			delay = delay * 2;
+		}
+		return Math.min(delay, getMaxDelay());
+	}
+
+	static ImmutableRetryConfig defaults() {
+		return ImmutableRetryConfig.builder()
+				.maxRetries(3)
+				.initialDelay(1000)
+				.maxDelay(10000)
+				.build();
+	}
+
+	static ImmutableRetryConfig none() {
+		return ImmutableRetryConfig.builder()
+				.maxRetries(0)
+				.initialDelay(0)
+				.maxDelay(0)
+				.build();
+	}
+
+	static ImmutableRetryConfig.Builder builder() {
+		return ImmutableRetryConfig.builder();
+	}
+}
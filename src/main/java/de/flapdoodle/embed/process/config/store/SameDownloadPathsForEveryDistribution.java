@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.config.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.flapdoodle.embed.process.distribution.Distribution;
+
+public class SameDownloadPathsForEveryDistribution implements DistributionDownloadPath {
+
+	private final List<String> _paths;
+
+	public SameDownloadPathsForEveryDistribution(String path, String... mirrors) {
+		String[] paths = new String[mirrors.length + 1];
+		paths[0] = path;
+		System.arraycopy(mirrors, 0, paths, 1, mirrors.length);
+		_paths = Collections.unmodifiableList(Arrays.asList(paths));
+	}
+
+	@Override
+	public String getPath(Distribution distribution) {
+		return _paths.get(0);
+	}
+
+	@Override
+	public List<String> getPaths(Distribution distribution) {
+		return _paths;
+	}
+
+}
@@ -32,6 +32,15 @@ public interface TimeoutConfig {
 	
 	int getReadTimeout();
 
+	/**
+	 * how long to wait for another process downloading or extracting the same archive (ms),
+	 * the download or extraction fails after that
+	 */
+	@Value.Default
+	default int getLockTimeout() {
+		return 5 * 60 * 1000;
+	}
+
 	static ImmutableTimeoutConfig defaults() {
 		return ImmutableTimeoutConfig.builder()
 				.connectionTimeout(10000)
@@ -27,7 +27,9 @@ import de.flapdoodle.embed.process.extract.ArchiveIsFileExtractor;
 import de.flapdoodle.embed.process.extract.Extractor;
 import de.flapdoodle.embed.process.extract.Tbz2Extractor;
 import de.flapdoodle.embed.process.extract.TgzExtractor;
+import de.flapdoodle.embed.process.extract.Tlz4Extractor;
 import de.flapdoodle.embed.process.extract.TxzExtractor;
+import de.flapdoodle.embed.process.extract.TzstExtractor;
 import de.flapdoodle.embed.process.extract.ZipExtractor;
 
 /**
@@ -38,7 +40,9 @@ public enum ArchiveType {
 	TBZ2(new Tbz2Extractor()),
 	ZIP(new ZipExtractor()),
 	EXE(new ArchiveIsFileExtractor()),
-	TXZ(new TxzExtractor());
+	TXZ(new TxzExtractor()),
+	TZST(new TzstExtractor()),
+	TLZ4(new Tlz4Extractor());
 
 	private final Extractor extractor;
 
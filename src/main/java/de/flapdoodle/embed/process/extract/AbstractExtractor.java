@@ -26,6 +26,20 @@ package de.flapdoodle.embed.process.extract;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,11 +47,23 @@ import org.slf4j.LoggerFactory;
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
 import de.flapdoodle.embed.process.config.store.FileType;
 import de.flapdoodle.embed.process.extract.ImmutableExtractedFileSet.Builder;
+import de.flapdoodle.embed.process.io.file.Files;
 import de.flapdoodle.embed.process.io.progress.ProgressListener;
 
 public abstract class AbstractExtractor implements Extractor {
 	
 	private static Logger _logger=LoggerFactory.getLogger(AbstractExtractor.class);
+
+	private static final ExecutorService EXTRACTION_POOL = extractionPool(Runtime.getRuntime().availableProcessors());
+
+	private static final long CANCEL_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+	/**
+	 * max number of entries written at the same time, if the archive supports concurrent reads
+	 */
+	protected int parallelism() {
+		return 1;
+	}
 	
 	protected abstract ArchiveWrapper archiveStream(File source) throws IOException;
 
@@ -55,39 +81,32 @@ public abstract class AbstractExtractor implements Extractor {
 
 	@Override
 	public ExtractedFileSet extract(DownloadConfig runtime, File source, FilesToExtract toExtract) throws IOException {
+		return extract(runtime, archiveStreamWithExceptionHint(source), "Extract " + source, toExtract);
+	}
+
+	/**
+	 * extracts all matching entries of archive, files written so far are removed if extraction fails
+	 */
+	protected ExtractedFileSet extract(DownloadConfig runtime, ArchiveWrapper archive, String progressLabel, FilesToExtract toExtract)
+			throws IOException {
 		Builder builder = ExtractedFileSet.builder(toExtract.baseDir())
 				.baseDirIsGenerated(toExtract.baseDirIsGenerated());
 
 		ProgressListener progressListener = runtime.getProgressListener();
-		String progressLabel = "Extract " + source;
 		progressListener.start(progressLabel);
 
-		ArchiveWrapper archive = archiveStreamWithExceptionHint(source);
-
+		List<File> written = Collections.synchronizedList(new ArrayList<>());
 		try {
-			org.apache.commons.compress.archivers.ArchiveEntry entry;
-			while ((entry = archive.getNextEntry()) != null) {
-				ExtractionMatch match = toExtract.find(new CommonsArchiveEntryAdapter(entry));
-				if (match != null) {
-					if (archive.canReadEntryData(entry)) {
-						long size = entry.getSize();
-						FileType type = match.type();
-						File file = match.write(archive.asStream(entry), size);
-						if (type==FileType.Executable) {
-							builder.executable(file);
-						} else {
-							builder.addLibraryFiles(file);
-						}
-						//						destination.setExecutable(true);
-						progressListener.info(progressLabel,"extract "+entry.getName());
-					}
-					if (toExtract.nothingLeft()) {
-						progressListener.info(progressLabel,"nothing left");
-						break;
-					}
-				}
+			if (parallelism() > 1 && archive.supportsConcurrentReads()) {
+				extractConcurrently(archive, progressLabel, toExtract, builder, progressListener, written);
+			} else {
+				extractSequentially(archive, progressLabel, toExtract, builder, progressListener, written);
 			}
-
+		} catch (IOException | RuntimeException ex) {
+			for (File file : written) {
+				Files.forceDelete(file);
+			}
+			throw ex;
 		} finally {
 			archive.close();
 		}
@@ -97,6 +116,152 @@ public abstract class AbstractExtractor implements Extractor {
 		return builder.build();
 	}
 
+	private static void extractSequentially(ArchiveWrapper archive, String progressLabel, FilesToExtract toExtract, Builder builder,
+			ProgressListener progressListener, List<File> written) throws IOException {
+		org.apache.commons.compress.archivers.ArchiveEntry entry;
+		while ((entry = archive.getNextEntry()) != null) {
+			ExtractionMatch match = toExtract.find(new CommonsArchiveEntryAdapter(entry));
+			if (match != null) {
+				if (archive.canReadEntryData(entry)) {
+					long size = entry.getSize();
+					FileType type = match.type();
+					File file = match.write(archive.asStream(entry), size);
+					written.add(file);
+					if (type==FileType.Executable) {
+						builder.executable(file);
+					} else {
+						builder.addLibraryFiles(file);
+					}
+					//						destination.setExecutable(true);
+					progressListener.info(progressLabel,"extract "+entry.getName());
+				}
+				if (toExtract.nothingLeft()) {
+					progressListener.info(progressLabel,"nothing left");
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * resolves all matches from the entry list first, then writes them with up to parallelism() workers
+	 */
+	private void extractConcurrently(ArchiveWrapper archive, String progressLabel, FilesToExtract toExtract, Builder builder,
+			ProgressListener progressListener, List<File> written) throws IOException {
+		List<org.apache.commons.compress.archivers.ArchiveEntry> entries = new ArrayList<>();
+		List<ExtractionMatch> matches = new ArrayList<>();
+		org.apache.commons.compress.archivers.ArchiveEntry entry;
+		while ((entry = archive.getNextEntry()) != null) {
+			ExtractionMatch match = toExtract.find(new CommonsArchiveEntryAdapter(entry));
+			if (match != null) {
+				if (archive.canReadEntryData(entry)) {
+					entries.add(entry);
+					matches.add(match);
+				}
+				if (toExtract.nothingLeft()) {
+					break;
+				}
+			}
+		}
+
+		File[] files = new File[entries.size()];
+		AtomicInteger next = new AtomicInteger();
+		AtomicBoolean failed = new AtomicBoolean();
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		int workerCount = Math.min(parallelism(), entries.size());
+		// claimed by the worker when it starts, or on interrupt for a worker which never started
+		AtomicBoolean[] claimed = new AtomicBoolean[workerCount];
+		CountDownLatch finished = new CountDownLatch(workerCount);
+		List<Future<?>> workers = new ArrayList<>();
+		for (int i = 0; i < workerCount; i++) {
+			AtomicBoolean claim = new AtomicBoolean();
+			claimed[i] = claim;
+			workers.add(EXTRACTION_POOL.submit(() -> {
+				if (!claim.compareAndSet(false, true)) {
+					return;
+				}
+				try {
+					int index;
+					while (!failed.get() && (index = next.getAndIncrement()) < files.length) {
+						org.apache.commons.compress.archivers.ArchiveEntry current = entries.get(index);
+						try (InputStream source = archive.asStream(current)) {
+							files[index] = matches.get(index).write(source, current.getSize());
+							written.add(files[index]);
+						} catch (IOException | RuntimeException ex) {
+							failed.set(true);
+							failure.compareAndSet(null, ex);
+						}
+					}
+				} finally {
+					finished.countDown();
+				}
+			}));
+		}
+		try {
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+		} catch (InterruptedException ix) {
+			failed.set(true);
+			for (int i = 0; i < workerCount; i++) {
+				if (claimed[i].compareAndSet(false, true)) {
+					finished.countDown();
+				}
+				workers.get(i).cancel(true);
+			}
+			awaitCancelledWorkers(finished);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while extracting");
+		} catch (ExecutionException ex) {
+			failure.compareAndSet(null, new IOException("extraction failed", ex.getCause()));
+		}
+
+		Exception ex = failure.get();
+		if (ex instanceof IOException) {
+			throw (IOException) ex;
+		}
+		if (ex instanceof RuntimeException) {
+			throw (RuntimeException) ex;
+		}
+
+		for (int i = 0; i < files.length; i++) {
+			if (matches.get(i).type()==FileType.Executable) {
+				builder.executable(files[i]);
+			} else {
+				builder.addLibraryFiles(files[i]);
+			}
+			progressListener.info(progressLabel,"extract "+entries.get(i).getName());
+		}
+	}
+
+	/**
+	 * one thread per cpu, workers of concurrent extractions are queued; a queued worker never blocks
+	 * an extraction, because each running worker takes entries until none is left
+	 */
+	private static ExecutorService extractionPool(int threads) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "extract");
+			thread.setDaemon(true);
+			return thread;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * cancelled workers may still be writing, the caller deletes what they have written only after
+	 * they are done
+	 */
+	private static void awaitCancelledWorkers(CountDownLatch finished) {
+		try {
+			if (!finished.await(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				_logger.warn("extraction workers still running after {}ms", CANCEL_TIMEOUT);
+			}
+		} catch (InterruptedException ix) {
+			_logger.warn("interrupted while waiting for extraction workers");
+		}
+	}
+
 	protected interface ArchiveWrapper {
 
 		org.apache.commons.compress.archivers.ArchiveEntry getNextEntry() throws IOException;
@@ -106,6 +271,13 @@ public abstract class AbstractExtractor implements Extractor {
 		void close() throws IOException;
 
 		boolean canReadEntryData(org.apache.commons.compress.archivers.ArchiveEntry entry);
+
+		/**
+		 * asStream may be called for different entries at the same time, each stream is closed after use
+		 */
+		default boolean supportsConcurrentReads() {
+			return false;
+		}
 	}
 
 }
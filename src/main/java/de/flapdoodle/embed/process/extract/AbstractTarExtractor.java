@@ -23,15 +23,49 @@
  */
 package de.flapdoodle.embed.process.extract;
 
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 public abstract class AbstractTarExtractor extends AbstractExtractor {
 
+	/**
+	 * sidecar of an archive file with the offsets of its entries, see IndexedTarArchiveWrapper
+	 */
+	public static final String INDEX_SUFFIX = ".index";
+
+	private static final Logger logger = LoggerFactory.getLogger(AbstractTarExtractor.class);
+
+	@FunctionalInterface
+	protected interface Decompressor {
+		InputStream decompress(InputStream source) throws IOException;
+	}
+
+	/**
+	 * tar archive in source, the index next to source is used and extended
+	 */
+	protected static ArchiveWrapper indexedArchiveStream(File source, Decompressor decompressor) throws IOException {
+		long length = source.length();
+		String fingerprint = ArchiveIndex.fingerprint(source);
+		ArchiveIndex index = ArchiveIndex.read(source, length, fingerprint).orElseGet(() -> ArchiveIndex.empty(length, fingerprint));
+		return new IndexedTarArchiveWrapper(source, index, decompressor);
+	}
+
 	protected static class TarArchiveWrapper implements ArchiveWrapper {
 	
 			private final TarArchiveInputStream _is;
@@ -62,4 +96,204 @@ public abstract class AbstractTarExtractor extends AbstractExtractor {
 	
 		}
 
+	/**
+	 * entries found in the index are not parsed again, their data is read after skipping the decompressed
+	 * stream up to the recorded offset; entries after the indexed ones are read from the tar stream and
+	 * added to the index, which is written on close; if the index does not fit the archive, the archive
+	 * is read from the start again and the index is rebuilt
+	 */
+	static class IndexedTarArchiveWrapper implements ArchiveWrapper {
+
+		private final File archive;
+		private final ArchiveIndex index;
+		private final Decompressor decompressor;
+		private final List<ArchiveIndex.Entry> found = new ArrayList<>();
+
+		private PositionInputStream decompressed;
+		private List<ArchiveIndex.Entry> indexed;
+		private int nextIndexed = 0;
+		private long next;
+		private boolean complete;
+		private boolean indexable = true;
+		private TarArchiveInputStream tarIn;
+
+		IndexedTarArchiveWrapper(File archive, ArchiveIndex index, Decompressor decompressor) throws IOException {
+			this.archive = archive;
+			this.index = index;
+			this.decompressor = decompressor;
+			this.decompressed = open(archive, decompressor);
+			this.indexed = index.entries();
+			this.next = index.next();
+			this.complete = index.complete();
+		}
+
+		@Override
+		public ArchiveEntry getNextEntry() throws IOException {
+			if (nextIndexed < indexed.size()) {
+				ArchiveIndex.Entry entry = indexed.get(nextIndexed);
+				return new IndexedEntry(entry, nextIndexed++);
+			}
+			if (complete) {
+				return null;
+			}
+			if (tarIn == null) {
+				try {
+					skipTo(next);
+					tarIn = new TarArchiveInputStream(decompressed);
+					return nextTarEntry();
+				} catch (IOException ex) {
+					readFromStart(nextIndexed, ex);
+				}
+			}
+			return nextTarEntry();
+		}
+
+		@Override
+		public boolean canReadEntryData(ArchiveEntry entry) {
+			return entry instanceof IndexedEntry || tarIn.canReadEntryData(entry);
+		}
+
+		@Override
+		public InputStream asStream(ArchiveEntry entry) throws IOException {
+			if (entry instanceof IndexedEntry) {
+				IndexedEntry indexedEntry = (IndexedEntry) entry;
+				try {
+					skipTo(indexedEntry.indexed.dataOffset);
+					return new BoundedInputStream(decompressed, indexedEntry.indexed.size);
+				} catch (IOException ex) {
+					readFromStart(indexedEntry.ordinal, ex);
+					TarArchiveEntry current = nextTarEntry();
+					if (current == null || !current.getName().equals(entry.getName())) {
+						throw new IOException("could not find " + entry.getName() + " in " + archive);
+					}
+				}
+			}
+			return tarIn;
+		}
+
+		@Override
+		public void close() throws IOException {
+			decompressed.close();
+			if (indexable && (!found.isEmpty() || complete != index.complete())) {
+				List<ArchiveIndex.Entry> entries = new ArrayList<>(indexed);
+				entries.addAll(found);
+				new ArchiveIndex(index.archiveLength(), index.fingerprint(), entries, next, complete).write(archive);
+			}
+		}
+
+		private TarArchiveEntry nextTarEntry() throws IOException {
+			TarArchiveEntry entry = tarIn.getNextTarEntry();
+			if (entry == null) {
+				complete = true;
+				return null;
+			}
+			long dataOffset = decompressed.position();
+			if (entry.isSparse() || entry.getName().contains("\n") || entry.getName().contains("\r")) {
+				indexable = false;
+			}
+			found.add(new ArchiveIndex.Entry(entry.getName(), dataOffset, entry.getSize()));
+			next = dataOffset + ArchiveIndex.padded(entry.getSize());
+			return entry;
+		}
+
+		/**
+		 * drops the index and reads the archive sequentially, positioned after the first entries which
+		 * were already handed out
+		 */
+		private void readFromStart(int entries, IOException cause) throws IOException {
+			logger.warn("index of {} does not fit, read it from the start", archive, cause);
+			decompressed.close();
+			decompressed = open(archive, decompressor);
+			tarIn = new TarArchiveInputStream(decompressed);
+			indexed = new ArrayList<>();
+			nextIndexed = 0;
+			found.clear();
+			next = 0;
+			complete = false;
+			for (int i = 0; i < entries; i++) {
+				if (nextTarEntry() == null) {
+					throw new EOFException("less than " + entries + " entries in " + archive);
+				}
+			}
+		}
+
+		private void skipTo(long offset) throws IOException {
+			long delta = offset - decompressed.position();
+			if (delta < 0) {
+				throw new IOException("can not go back to " + offset + " in " + archive + ", index is broken");
+			}
+			if (IOUtils.skip(decompressed, delta) != delta) {
+				throw new EOFException("offset " + offset + " is beyond the end of " + archive + ", index is broken");
+			}
+		}
+
+		private static PositionInputStream open(File archive, Decompressor decompressor) throws IOException {
+			InputStream in = new FileInputStream(archive);
+			try {
+				return new PositionInputStream(decompressor.decompress(new BufferedInputStream(in)));
+			} catch (IOException | RuntimeException ex) {
+				in.close();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * counts skipped bytes too, TarArchiveInputStream skips over entry data and record padding
+	 */
+	private static class PositionInputStream extends FilterInputStream {
+
+		private long position;
+
+		PositionInputStream(InputStream in) {
+			super(in);
+		}
+
+		long position() {
+			return position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if (result != -1) {
+				position++;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result > 0) {
+				position += result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long result = super.skip(n);
+			position += result;
+			return result;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	private static class IndexedEntry extends TarArchiveEntry {
+
+		private final ArchiveIndex.Entry indexed;
+		private final int ordinal;
+
+		IndexedEntry(ArchiveIndex.Entry indexed, int ordinal) {
+			super(indexed.name, true);
+			setSize(indexed.size);
+			this.indexed = indexed;
+			this.ordinal = ordinal;
+		}
+	}
 }
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * not part of public api
+ *
+ * sidecar of a tar archive: name, size and offset of the data of every entry in the decompressed stream,
+ * as far as the archive was read so far; only valid for the archive with the recorded length and
+ * fingerprint, a hash of the first and the last bytes of the archive, which include the checksum
+ * of the content in gzip, xz, zstd and lz4 trailers
+ */
+class ArchiveIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArchiveIndex.class);
+
+	private static final String VERSION = "tar-index-3";
+
+	private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+	private static final int RECORD_SIZE = 512;
+
+	private final long archiveLength;
+	private final String fingerprint;
+	private final List<Entry> entries;
+	private final long next;
+	private final boolean complete;
+
+	ArchiveIndex(long archiveLength, String fingerprint, List<Entry> entries, long next, boolean complete) {
+		this.archiveLength = archiveLength;
+		this.fingerprint = fingerprint;
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+		this.next = next;
+		this.complete = complete;
+	}
+
+	static ArchiveIndex empty(long archiveLength, String fingerprint) {
+		return new ArchiveIndex(archiveLength, fingerprint, Collections.emptyList(), 0, false);
+	}
+
+	long archiveLength() {
+		return archiveLength;
+	}
+
+	String fingerprint() {
+		return fingerprint;
+	}
+
+	List<Entry> entries() {
+		return entries;
+	}
+
+	/**
+	 * offset of the first header after the indexed entries
+	 */
+	long next() {
+		return next;
+	}
+
+	/**
+	 * all entries of the archive are indexed
+	 */
+	boolean complete() {
+		return complete;
+	}
+
+	static File indexFileOf(File archive) {
+		return new File(archive.getPath() + AbstractTarExtractor.INDEX_SUFFIX);
+	}
+
+	/**
+	 * sha-256 of length, first and last bytes of archive
+	 */
+	static String fingerprint(File archive) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			long length = file.length();
+			digest.update(Long.toString(length).getBytes(StandardCharsets.UTF_8));
+			byte[] buffer = new byte[(int) Math.min(FINGERPRINT_BYTES, length)];
+			file.readFully(buffer);
+			digest.update(buffer);
+			file.seek(length - buffer.length);
+			file.readFully(buffer);
+			digest.update(buffer);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException nsax) {
+			throw new IOException("sha-256 not supported", nsax);
+		}
+	}
+
+	/**
+	 * the index of archive, if there is one and it was written for this archive
+	 */
+	static Optional<ArchiveIndex> read(File archive) throws IOException {
+		return read(archive, archive.length(), fingerprint(archive));
+	}
+
+	static Optional<ArchiveIndex> read(File archive, long archiveLength, String fingerprint) {
+		File indexFile = indexFileOf(archive);
+		if (!indexFile.isFile()) {
+			return Optional.empty();
+		}
+		try (BufferedReader reader = java.nio.file.Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+			String[] header = reader.readLine().split(" ");
+			if (header.length != 5 || !VERSION.equals(header[0])
+					|| Long.parseLong(header[1]) != archiveLength
+					|| !fingerprint.equals(header[2])) {
+				logger.debug("{} does not match {}", indexFile, archive);
+				return Optional.empty();
+			}
+			List<Entry> entries = new ArrayList<>();
+			long end = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ", 3);
+				Entry entry = new Entry(parts[2], Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+				// data follows at least one header after the end of the previous entry
+				if (entry.dataOffset < end + RECORD_SIZE || entry.size < 0) {
+					logger.warn("{} is broken, entry {} at {}", indexFile, entry.name, entry.dataOffset);
+					return Optional.empty();
+				}
+				entries.add(entry);
+				end = entry.dataOffset + padded(entry.size);
+			}
+			long next = Long.parseLong(header[3]);
+			if (next < end) {
+				logger.warn("{} is broken, next {} before {}", indexFile, next, end);
+				return Optional.empty();
+			}
+			return Optional.of(new ArchiveIndex(archiveLength, fingerprint, entries, next, Boolean.parseBoolean(header[4])));
+		} catch (IOException | RuntimeException ex) {
+			logger.warn("could not read {}", indexFile, ex);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * size rounded up to whole tar records
+	 */
+	static long padded(long size) {
+		return (size + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+	}
+
+	/**
+	 * the index is an optimization: failures are logged, not thrown
+	 */
+	void write(File archive) {
+		File indexFile = indexFileOf(archive);
+		File temp = new File(indexFile.getPath() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (BufferedWriter writer = java.nio.file.Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+				writer.write(VERSION + " " + archiveLength + " " + fingerprint + " " + next + " " + complete);
+				writer.newLine();
+				for (Entry entry : entries) {
+					writer.write(entry.dataOffset + " " + entry.size + " " + entry.name);
+					writer.newLine();
+				}
+			}
+			java.nio.file.Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException ex) {
+			logger.debug("could not write {}", indexFile, ex);
+			try {
+				java.nio.file.Files.deleteIfExists(temp.toPath());
+			} catch (IOException iox) {
+				logger.debug("could not delete {}", temp, iox);
+			}
+		}
+	}
+
+	static class Entry {
+
+		final String name;
+		final long dataOffset;
+		final long size;
+
+		Entry(String name, long dataOffset, long size) {
+			this.name = name;
+			this.dataOffset = dataOffset;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.os.OS;
+import de.flapdoodle.os.Platform;
+
+/**
+ * how ExtractedFileSets.copy puts the extracted files into the temp directory,
+ * every strategy falls back to COPY if it is not supported (other filesystem, missing privileges)
+ */
+public enum CopyStrategy {
+	/**
+	 * byte copy, the default
+	 */
+	COPY {
+		@Override
+		void apply(Path source, Path target) throws IOException {
+			Files.copy(source, target);
+		}
+	},
+	/**
+	 * hardlink to the extracted file, no copy at all; source and target share content and permissions
+	 */
+	HARDLINK {
+		@Override
+		void apply(Path source, Path target) throws IOException {
+			Files.createLink(target, source);
+		}
+	},
+	/**
+	 * symlink to the extracted file, ExtractedArtifactStore keeps the extraction leased until removeFileSet,
+	 * so the StoreJanitor does not remove it while the links are in use
+	 */
+	SYMLINK {
+		@Override
+		void apply(Path source, Path target) throws IOException {
+			Files.createSymbolicLink(target, source.toAbsolutePath());
+		}
+	},
+	/**
+	 * copy on write clone (FICLONE) with cp --reflink=auto, which copies itself if the filesystem can not clone
+	 */
+	REFLINK {
+		@Override
+		void apply(Path source, Path target) throws IOException {
+			if (Platform.detect().operatingSystem() == OS.Windows) {
+				throw new UnsupportedOperationException("no reflink on windows");
+			}
+			Process process = new ProcessBuilder("cp", "--reflink=auto", source.toAbsolutePath().toString(), target.toAbsolutePath().toString())
+					.redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.appendTo(NULL_DEVICE))
+					.start();
+			try {
+				if (!process.waitFor(CP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+					Files.deleteIfExists(target);
+					throw new IOException("cp --reflink=auto " + source + " " + target + " timed out");
+				}
+			} catch (InterruptedException ix) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+				Files.deleteIfExists(target);
+				throw new IOException("interrupted while cloning " + source, ix);
+			}
+			if (process.exitValue() != 0) {
+				Files.deleteIfExists(target);
+				throw new IOException("cp --reflink=auto " + source + " " + target + " failed with " + process.exitValue());
+			}
+		}
+	};
+
+	private static final Logger logger = LoggerFactory.getLogger(CopyStrategy.class);
+
+	private static final long CP_TIMEOUT_SECONDS = 300;
+	private static final File NULL_DEVICE = new File("/dev/null");
+
+	abstract void apply(Path source, Path target) throws IOException;
+
+	/**
+	 * puts source at target with this strategy, falls back to a byte copy if that does not work
+	 */
+	Path copy(Path source, Path target) throws IOException {
+		if (Files.exists(target) && Files.isSameFile(source, target)) {
+			// nothing to do, like Files.copy (library files of an extraction are absolute)
+			return target;
+		}
+		if (this != COPY) {
+			try {
+				apply(source, target);
+				logger.debug("{} {} to {}", this, source, target);
+				return target;
+			} catch (java.nio.file.FileAlreadyExistsException fx) {
+				throw fx;
+			} catch (UnsupportedOperationException | IOException iox) {
+				logger.debug("could not {} {} to {}, copy instead", this, source, target, iox);
+			}
+		}
+		COPY.apply(source, target);
+		return target;
+	}
+}
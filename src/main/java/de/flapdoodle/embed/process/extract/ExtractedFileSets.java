@@ -43,6 +43,13 @@ public abstract class ExtractedFileSets {
 	}
 	
 	public static ExtractedFileSet copy(ExtractedFileSet src, Directory directory, TempNaming executableNaming) throws IOException {
+		return copy(src, directory, executableNaming, CopyStrategy.COPY);
+	}
+
+	/**
+	 * @see CopyStrategy
+	 */
+	public static ExtractedFileSet copy(ExtractedFileSet src, Directory directory, TempNaming executableNaming, CopyStrategy copyStrategy) throws IOException {
 		File destination = directory.asFile();
 		File baseDir = src.baseDir();
 		File oldExe = src.executable();
@@ -50,13 +57,13 @@ public abstract class ExtractedFileSets {
 				.baseDirIsGenerated(directory.isGenerated());
 
 		Files.createOrCheckDir(Files.fileOf(destination, oldExe).getParentFile());
-		Path newExeFile = java.nio.file.Files.copy(Files.fileOf(baseDir, oldExe).toPath(), Files.fileOf(destination, executableNaming.nameFor("extract", oldExe.getName())).toPath());
+		Path newExeFile = copyStrategy.copy(Files.fileOf(baseDir, oldExe).toPath(), Files.fileOf(destination, executableNaming.nameFor("extract", oldExe.getName())).toPath());
 		builder.executable(newExeFile.toFile());
 
 		for (File srcFile : src.libraryFiles()) {
 			File destinationFile = Files.fileOf(destination, srcFile);
 			Files.createOrCheckDir(destinationFile.getParentFile());
-			Path newFile=java.nio.file.Files.copy(Files.fileOf(baseDir, srcFile).toPath(), destinationFile.toPath());
+			Path newFile=copyStrategy.copy(Files.fileOf(baseDir, srcFile).toPath(), destinationFile.toPath());
 			builder.addLibraryFiles(newFile.toFile());
 		}
 		return builder.build();
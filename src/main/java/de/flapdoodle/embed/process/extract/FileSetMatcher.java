@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import de.flapdoodle.embed.process.config.store.FileSet;
+
+/**
+ * not part of public api
+ *
+ * matches archive entry names against all entries of a FileSet: patterns are compiled once,
+ * and only patterns whose literal suffix (".*mongod" -&gt; "mongod") ends the name are tried,
+ * found with one hash lookup per distinct suffix length
+ */
+class FileSetMatcher {
+
+	private static final String META_CHARS = "\\^$.|?*+()[]{}";
+	private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+	private final List<FileSet.Entry> entries;
+	private final Pattern[] patterns;
+	private final Map<Integer, Map<String, BitSet>> caseSensitive = new HashMap<>();
+	private final Map<Integer, Map<String, BitSet>> caseInsensitive = new HashMap<>();
+	private final BitSet withoutSuffix = new BitSet();
+
+	FileSetMatcher(List<FileSet.Entry> entries) {
+		this.entries = new ArrayList<>(entries);
+		this.patterns = new Pattern[this.entries.size()];
+		for (int i = 0; i < patterns.length; i++) {
+			Pattern pattern = this.entries.get(i).matchingPattern();
+			patterns[i] = pattern;
+			String suffix = literalSuffix(pattern);
+			if (suffix.isEmpty()) {
+				withoutSuffix.set(i);
+			} else if ((pattern.flags() & Pattern.CASE_INSENSITIVE) != 0) {
+				index(caseInsensitive, foldCase(suffix), i);
+			} else {
+				index(caseSensitive, suffix, i);
+			}
+		}
+	}
+
+	/**
+	 * first entry (in FileSet order) accepted by remaining whose pattern matches name
+	 */
+	Optional<FileSet.Entry> find(String name, Predicate<FileSet.Entry> remaining) {
+		BitSet candidates = candidates(name);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			FileSet.Entry entry = entries.get(i);
+			if (remaining.test(entry) && patterns[i].matcher(name).matches()) {
+				return Optional.of(entry);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private BitSet candidates(String name) {
+		BitSet candidates = (BitSet) withoutSuffix.clone();
+		lookup(caseSensitive, name, candidates);
+		if (!caseInsensitive.isEmpty()) {
+			lookup(caseInsensitive, foldCase(name), candidates);
+		}
+		return candidates;
+	}
+
+	private static void lookup(Map<Integer, Map<String, BitSet>> index, String name, BitSet candidates) {
+		for (Map.Entry<Integer, Map<String, BitSet>> bySuffix : index.entrySet()) {
+			int length = bySuffix.getKey();
+			if (name.length() >= length) {
+				BitSet found = bySuffix.getValue().get(name.substring(name.length() - length));
+				if (found != null) {
+					candidates.or(found);
+				}
+			}
+		}
+	}
+
+	private static void index(Map<Integer, Map<String, BitSet>> index, String suffix, int entry) {
+		index.computeIfAbsent(suffix.length(), length -> new HashMap<>())
+				.computeIfAbsent(suffix, key -> new BitSet())
+				.set(entry);
+	}
+
+	/**
+	 * literal characters every match ends with, empty if there are none or the pattern is too
+	 * complicated to tell (alternatives, inline flags, flags other than case insensitive)
+	 */
+	static String literalSuffix(Pattern pattern) {
+		String regex = pattern.pattern();
+		if ((pattern.flags() & ~SUPPORTED_FLAGS) != 0 || regex.contains("|") || regex.contains("(?")) {
+			return "";
+		}
+		int end = regex.length();
+		if (end > 0 && regex.charAt(end - 1) == '$' && !isEscaped(regex, end - 1)) {
+			end--;
+		}
+		int start = end;
+		while (start > 0 && META_CHARS.indexOf(regex.charAt(start - 1)) == -1) {
+			start--;
+		}
+		if (start > 0 && start < end && isEscaped(regex, start)) {
+			// escape sequence like \d, \x41, \u0041 or \0101 reaches into the suffix
+			return "";
+		}
+		return regex.substring(start, end);
+	}
+
+	private static boolean isEscaped(String regex, int index) {
+		int backslashes = 0;
+		for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+			backslashes++;
+		}
+		return backslashes % 2 == 1;
+	}
+
+	/**
+	 * same length as s, like String.regionMatches(true, ...)
+	 */
+	private static String foldCase(String s) {
+		char[] chars = s.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+}
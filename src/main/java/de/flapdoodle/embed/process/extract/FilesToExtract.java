@@ -40,6 +40,7 @@ import de.flapdoodle.embed.process.io.file.Files;
 public class FilesToExtract {
 
 	private final ArrayList<FileSet.Entry> _files;
+	private final FileSetMatcher _matcher;
 	private final TempNaming _executableNaming;
 	private final File _dirFactoryResult;
 	private final boolean _dirFactoryResultIsGenerated;
@@ -50,6 +51,7 @@ public class FilesToExtract {
 		if (fileSet==null) throw new NullPointerException("fileSet is NULL");
 		
 		_files = new ArrayList<>(fileSet.entries());
+		_matcher = new FileSetMatcher(_files);
 		_dirFactoryResult = dirFactory.asFile();
 		_dirFactoryResultIsGenerated=dirFactory.isGenerated();
 		_executableNaming = executableNaming;
@@ -75,12 +77,7 @@ public class FilesToExtract {
 		Entry found = null;
 
 		if (!entry.isDirectory()) {
-			for (FileSet.Entry e : _files) {
-				if (e.matchingPattern().matcher(entry.getName()).matches()) {
-					found = e;
-					break;
-				}
-			}
+			found = _matcher.find(entry.getName(), _files::contains).orElse(null);
 
 			if (found != null) {
 				_files.remove(found);
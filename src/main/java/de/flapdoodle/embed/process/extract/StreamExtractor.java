@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+
+/**
+ * Extractor which can read the archive as a stream, e.g. while it is downloaded
+ */
+public interface StreamExtractor extends Extractor {
+
+	/**
+	 * source is read up to the last entry needed and then closed
+	 */
+	ExtractedFileSet extract(DownloadConfig runtime, InputStream source, String label, FilesToExtract toExtract) throws IOException;
+
+}
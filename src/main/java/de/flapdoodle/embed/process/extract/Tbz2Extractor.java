@@ -25,18 +25,28 @@ package de.flapdoodle.embed.process.extract;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 
-public class Tbz2Extractor extends AbstractTarExtractor {
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+
+public class Tbz2Extractor extends AbstractTarExtractor implements StreamExtractor {
 
 	@Override
 	protected ArchiveWrapper archiveStream(File source) throws IOException {
-		FileInputStream fin = new FileInputStream(source);
-		BufferedInputStream in = new BufferedInputStream(fin);
+		return indexedArchiveStream(source, BZip2CompressorInputStream::new);
+	}
+
+	@Override
+	public ExtractedFileSet extract(DownloadConfig runtime, InputStream source, String label, FilesToExtract toExtract) throws IOException {
+		return extract(runtime, archiveStream(source), label, toExtract);
+	}
+
+	private static ArchiveWrapper archiveStream(InputStream source) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(source);
 		BZip2CompressorInputStream gzIn = new BZip2CompressorInputStream(in);
 
 		TarArchiveInputStream tarIn = new TarArchiveInputStream(gzIn);
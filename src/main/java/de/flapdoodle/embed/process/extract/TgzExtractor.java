@@ -25,20 +25,30 @@ package de.flapdoodle.embed.process.extract;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+
 /**
  *
  */
-public class TgzExtractor extends AbstractTarExtractor {
+public class TgzExtractor extends AbstractTarExtractor implements StreamExtractor {
 
 	protected ArchiveWrapper archiveStream(File source) throws IOException {
-		FileInputStream fin = new FileInputStream(source);
-		BufferedInputStream in = new BufferedInputStream(fin);
+		return indexedArchiveStream(source, GzipCompressorInputStream::new);
+	}
+
+	@Override
+	public ExtractedFileSet extract(DownloadConfig runtime, InputStream source, String label, FilesToExtract toExtract) throws IOException {
+		return extract(runtime, archiveStream(source), label, toExtract);
+	}
+
+	private static ArchiveWrapper archiveStream(InputStream source) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(source);
 		GzipCompressorInputStream gzIn = new GzipCompressorInputStream(in);
 
 		TarArchiveInputStream tarIn = new TarArchiveInputStream(gzIn);
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+
+/**
+ * tar.lz4 in the lz4 frame format, pure java codec of commons-compress
+ */
+public class Tlz4Extractor extends AbstractTarExtractor implements StreamExtractor {
+
+	protected ArchiveWrapper archiveStream(File source) throws IOException {
+		return indexedArchiveStream(source, in -> new FramedLZ4CompressorInputStream(in, true));
+	}
+
+	@Override
+	public ExtractedFileSet extract(DownloadConfig runtime, InputStream source, String label, FilesToExtract toExtract) throws IOException {
+		return extract(runtime, archiveStream(source), label, toExtract);
+	}
+
+	private static ArchiveWrapper archiveStream(InputStream source) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(source);
+		FramedLZ4CompressorInputStream lz4In = new FramedLZ4CompressorInputStream(in, true);
+
+		TarArchiveInputStream tarIn = new TarArchiveInputStream(lz4In);
+		return new TarArchiveWrapper(tarIn);
+	}
+}
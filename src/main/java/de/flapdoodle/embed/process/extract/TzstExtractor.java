@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+
+/**
+ * tar.zst, the codec is com.github.luben:zstd-jni (bundled native library), which must be on the classpath
+ */
+public class TzstExtractor extends AbstractTarExtractor implements StreamExtractor {
+
+	private final BooleanSupplier zstdAvailable;
+
+	public TzstExtractor() {
+		this(ZstdUtils::isZstdCompressionAvailable);
+	}
+
+	TzstExtractor(BooleanSupplier zstdAvailable) {
+		this.zstdAvailable = zstdAvailable;
+	}
+
+	protected ArchiveWrapper archiveStream(File source) throws IOException {
+		return indexedArchiveStream(source, ZstdCompressorInputStream::new);
+	}
+
+	@Override
+	public ExtractedFileSet extract(DownloadConfig runtime, File source, FilesToExtract toExtract) throws IOException {
+		checkZstdAvailable();
+		return super.extract(runtime, source, toExtract);
+	}
+
+	@Override
+	public ExtractedFileSet extract(DownloadConfig runtime, InputStream source, String label, FilesToExtract toExtract) throws IOException {
+		checkZstdAvailable();
+		return extract(runtime, archiveStream(source), label, toExtract);
+	}
+
+	/**
+	 * zstd-jni is an optional dependency, without it the codec fails with a NoClassDefFoundError,
+	 * checked before the archive is opened, so it is not reported as a broken archive
+	 */
+	private void checkZstdAvailable() throws IOException {
+		if (!zstdAvailable.getAsBoolean()) {
+			throw new IOException("could not extract tar.zst, com.github.luben:zstd-jni is not on the classpath");
+		}
+	}
+
+	private static ArchiveWrapper archiveStream(InputStream source) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(source);
+		ZstdCompressorInputStream zstdIn = new ZstdCompressorInputStream(in);
+
+		TarArchiveInputStream tarIn = new TarArchiveInputStream(zstdIn);
+		return new TarArchiveWrapper(tarIn);
+	}
+}
@@ -33,10 +33,26 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 
 /**
- *
+ * matched entries are written concurrently, zip files can read entries at random
  */
 public class ZipExtractor extends AbstractExtractor {
 
+    private final int parallelism;
+
+    public ZipExtractor() {
+        this(Math.min(Runtime.getRuntime().availableProcessors(), 8));
+    }
+
+    public ZipExtractor(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    protected int parallelism() {
+        return parallelism;
+    }
+
     @Override
     protected ArchiveWrapper archiveStream(File source) throws IOException {
         ZipFile zipIn = new ZipFile(source);
@@ -72,5 +88,10 @@ public class ZipExtractor extends AbstractExtractor {
         public InputStream asStream(ArchiveEntry entry) throws IOException {
             return zFile.getInputStream(zFile.getEntry(entry.getName()));
         }
+
+        @Override
+        public boolean supportsConcurrentReads() {
+            return true;
+        }
     }
 }
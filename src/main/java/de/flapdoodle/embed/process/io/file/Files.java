@@ -24,12 +24,15 @@
 package de.flapdoodle.embed.process.io.file;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.UUID;
 
@@ -45,7 +48,10 @@ import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
 public class Files {
 
 	private static Logger logger = LoggerFactory.getLogger(Files.class);
-	private static final int BYTE_BUFFER_LENGTH = 1024 * 16;
+	private static final int BUFFER_LENGTH = 1024 * 1024;
+	private static final long SLICE_LENGTH = 4 * 1024 * 1024;
+
+	private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_LENGTH]);
 	/**
 	 * Instance to force loading {@link DeleteDirVisitor} class to avoid
 	 * {@link NoClassDefFoundError} in shutdown hook.
@@ -82,7 +88,15 @@ public class Files {
 	public static File createOrCheckDir(File dir) throws IOException {
 		if ((dir.exists()) && (dir.isDirectory()))
 			return dir;
-		return createDir(dir);
+		try {
+			return createDir(dir);
+		} catch (IOException iox) {
+			if (dir.isDirectory()) {
+				// created concurrently
+				return dir;
+			}
+			throw iox;
+		}
 	}
 
 	public static File createOrCheckUserDir(String prefix) throws IOException {
@@ -173,24 +187,64 @@ public class Files {
 		}
 	}
 
+	/**
+	 * copies at most size bytes of in (everything if size is negative) into output; the length of output
+	 * is set to size up front, a FileInputStream is transferred channel to channel, any other stream
+	 * is read into a large reusable array and written from there, without a second copy
+	 */
 	public static void write(final InputStream in, long size, final File output)
 			throws IOException {
-		try (final OutputStream out = java.nio.file.Files.newOutputStream(output.toPath())) {
-			final byte[] buf = new byte[BYTE_BUFFER_LENGTH];
-			int read;
-			int left = buf.length;
-			if (left > size) {
-				left = (int) size;
+		try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			boolean preallocated = preallocate(out, size);
+			long limit = size < 0 ? Long.MAX_VALUE : size;
+			long written = in.getClass() == FileInputStream.class
+					? transfer(((FileInputStream) in).getChannel(), out, limit)
+					: copy(in, out, limit);
+			if (preallocated && written < size) {
+				out.truncate(written);
 			}
-			while ((read = in.read(buf, 0, left)) > 0) {
+		}
+	}
 
-				out.write(buf, 0, read);
+	private static boolean preallocate(FileChannel out, long size) throws IOException {
+		if (size <= BUFFER_LENGTH) {
+			return false;
+		}
+		// positional write, out.position() stays at 0
+		out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+		return true;
+	}
 
-				size = size - read;
-				if (left > size)
-					left = (int) size;
+	private static long transfer(FileChannel in, FileChannel out, long limit) throws IOException {
+		long position = 0;
+		long transferred;
+		while (position < limit && (transferred = out.transferFrom(in, position, Math.min(SLICE_LENGTH, limit - position))) > 0) {
+			position = position + transferred;
+		}
+		return position;
+	}
+
+	private static long copy(InputStream in, FileChannel out, long limit) throws IOException {
+		byte[] buffer = BUFFERS.get();
+		long written = 0;
+		boolean endOfStream = false;
+		while (!endOfStream && written < limit) {
+			int length = (int) Math.min(buffer.length, limit - written);
+			int filled = 0;
+			while (filled < length) {
+				int read = in.read(buffer, filled, length - filled);
+				if (read == -1) {
+					endOfStream = true;
+					break;
+				}
+				filled = filled + read;
+			}
+			ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, filled);
+			while (wrapped.hasRemaining()) {
+				written = written + out.write(wrapped);
 			}
 		}
+		return written;
 	}
 
 	public static void write(final InputStream in, final File output) throws IOException {
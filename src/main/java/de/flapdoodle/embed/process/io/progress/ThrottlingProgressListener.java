@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.io.progress;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * forwards progress to the delegate only if the download is complete, the percent moved by
+ * minPercentDelta or minInterval (ms) passed since the last forwarded call of the same label;
+ * info messages of the same label within minInterval are coalesced, only the last one is forwarded
+ * (before the next info after minInterval, on start or done of this label);
+ * labels are throttled independently, so concurrent downloads can share one listener
+ */
+public class ThrottlingProgressListener implements ProgressListener {
+
+	public static final long DEFAULT_MIN_INTERVAL = 100;
+	public static final int DEFAULT_MIN_PERCENT_DELTA = 5;
+
+	private static final int ONE_HUNDRED_PERCENT = 100;
+	static final int MAX_LABELS = 256;
+
+	private final ProgressListener delegate;
+	private final long minInterval;
+	private final int minPercentDelta;
+	private final LongSupplier nanoTime;
+
+	// labels of failed downloads never get done(), the least recently used ones are dropped
+	private final Map<String, LabelState> states = new LinkedHashMap<String, LabelState>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LabelState> eldest) {
+			if (size() > MAX_LABELS) {
+				flushInfo(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	public ThrottlingProgressListener(ProgressListener delegate) {
+		this(delegate, DEFAULT_MIN_INTERVAL, DEFAULT_MIN_PERCENT_DELTA);
+	}
+
+	public ThrottlingProgressListener(ProgressListener delegate, long minInterval, int minPercentDelta) {
+		this(delegate, minInterval, minPercentDelta, System::nanoTime);
+	}
+
+	ThrottlingProgressListener(ProgressListener delegate, long minInterval, int minPercentDelta, LongSupplier nanoTime) {
+		if (minInterval < 0)
+			throw new IllegalArgumentException("minInterval < 0: " + minInterval);
+		if (minPercentDelta < 0)
+			throw new IllegalArgumentException("minPercentDelta < 0: " + minPercentDelta);
+		this.delegate = delegate;
+		this.minInterval = TimeUnit.MILLISECONDS.toNanos(minInterval);
+		this.minPercentDelta = minPercentDelta;
+		this.nanoTime = nanoTime;
+	}
+
+	@Override
+	public synchronized void progress(String label, int percent) {
+		long now = nanoTime.getAsLong();
+		LabelState state = stateOf(label, now);
+		boolean forward = (percent == ONE_HUNDRED_PERCENT && state.lastPercent != ONE_HUNDRED_PERCENT)
+				|| Math.abs(percent - state.lastPercent) >= minPercentDelta
+				|| now - state.lastProgress >= minInterval;
+		if (forward) {
+			state.lastPercent = percent;
+			state.lastProgress = now;
+			delegate.progress(label, percent);
+		}
+	}
+
+	@Override
+	public synchronized void done(String label) {
+		flushInfo(label);
+		states.remove(label);
+		delegate.done(label);
+	}
+
+	@Override
+	public synchronized void start(String label) {
+		flushInfo(label);
+		states.remove(label);
+		delegate.start(label);
+	}
+
+	@Override
+	public synchronized void info(String label, String message) {
+		long now = nanoTime.getAsLong();
+		LabelState state = stateOf(label, now);
+		if (now - state.lastInfo >= minInterval) {
+			flushInfo(label, state);
+			state.lastInfo = now;
+			delegate.info(label, message);
+		} else {
+			state.pendingInfo = message;
+		}
+	}
+
+	private LabelState stateOf(String label, long now) {
+		return states.computeIfAbsent(label, __ -> new LabelState(now - minInterval));
+	}
+
+	private void flushInfo(String label) {
+		LabelState state = states.get(label);
+		if (state != null) {
+			flushInfo(label, state);
+		}
+	}
+
+	private void flushInfo(String label, LabelState state) {
+		if (state.pendingInfo != null) {
+			delegate.info(label, state.pendingInfo);
+			state.pendingInfo = null;
+		}
+	}
+
+	private static class LabelState {
+
+		private int lastPercent = -1;
+		private long lastProgress;
+		private String pendingInfo = null;
+		private long lastInfo;
+
+		LabelState(long longAgo) {
+			this.lastProgress = longAgo;
+			this.lastInfo = longAgo;
+		}
+	}
+}
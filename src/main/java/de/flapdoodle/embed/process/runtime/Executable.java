@@ -26,6 +26,8 @@ package de.flapdoodle.embed.process.runtime;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -112,6 +114,21 @@ public abstract class Executable<T extends ExecutableProcessConfig, P extends IS
 		return start;
 	}
 
+	/**
+	 * start on executor, an IOException completes the future exceptionally
+	 */
+	public CompletableFuture<P> startAsync(Executor executor) {
+		CompletableFuture<P> result = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				result.complete(start());
+			} catch (IOException | RuntimeException | Error ex) {
+				result.completeExceptionally(ex);
+			}
+		});
+		return result;
+	}
+
 	private void addStopable(P start) {
 		stopables.add(start);
 	}
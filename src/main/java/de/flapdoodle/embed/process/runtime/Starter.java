@@ -25,6 +25,9 @@ package de.flapdoodle.embed.process.runtime;
 
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,13 +66,45 @@ public abstract class Starter<CONFIG extends ExecutableProcessConfig,EXECUTABLE
 				throw new DistributionException("could not find Distribution",distribution);
 			}
 		} catch (IOException iox) {
-			String messageOnException = config.supportConfig().messageOnException().apply(getClass(), iox);
-			if (messageOnException==null) {
-				messageOnException="prepare executable";
-			}
-			logger.error(messageOnException, iox);
-			throw new DistributionException(distribution,iox);
+			throw failed(config, distribution, iox);
+		}
+	}
+
+	/**
+	 * @see #prepareAsync(ExecutableProcessConfig, Distribution, Executor)
+	 */
+	public CompletableFuture<EXECUTABLE> prepareAsync(CONFIG config, Executor executor) {
+		return prepareAsync(config, Distribution.detectFor(config.version()), executor);
+	}
+
+	/**
+	 * like prepare, but extracts on executor (see IArtifactStore.extractFileSetAsync), so that several
+	 * executables can be prepared at the same time; fails with the same DistributionException
+	 */
+	public CompletableFuture<EXECUTABLE> prepareAsync(CONFIG config, Distribution distribution, Executor executor) {
+		return runtime.artifactStore().extractFileSetAsync(distribution, executor)
+				.handle((files, ex) -> {
+					if (ex != null) {
+						Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+						if (cause instanceof IOException) {
+							throw failed(config, distribution, (IOException) cause);
+						}
+						throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+					}
+					if (files.isPresent()) {
+						return newExecutable(config, distribution, runtime, files.get());
+					}
+					throw new DistributionException("could not find Distribution",distribution);
+				});
+	}
+
+	private DistributionException failed(CONFIG config, Distribution distribution, IOException iox) {
+		String messageOnException = config.supportConfig().messageOnException().apply(getClass(), iox);
+		if (messageOnException==null) {
+			messageOnException="prepare executable";
 		}
+		logger.error(messageOnException, iox);
+		return new DistributionException(distribution,iox);
 	}
 
 	protected abstract EXECUTABLE newExecutable(CONFIG config, Distribution distribution, RuntimeConfig runtime, ExtractedFileSet exe);
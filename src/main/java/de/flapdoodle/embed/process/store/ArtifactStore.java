@@ -25,10 +25,16 @@ package de.flapdoodle.embed.process.store;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.immutables.value.Value.Auxiliary;
+import org.immutables.value.Value.Default;
 import org.immutables.value.Value.Immutable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
 import de.flapdoodle.embed.process.config.store.PackageResolver;
@@ -38,12 +44,18 @@ import de.flapdoodle.embed.process.extract.ExtractedFileSets;
 import de.flapdoodle.embed.process.extract.Extractor;
 import de.flapdoodle.embed.process.extract.Extractors;
 import de.flapdoodle.embed.process.extract.FilesToExtract;
+import de.flapdoodle.embed.process.extract.StreamExtractor;
 import de.flapdoodle.embed.process.extract.TempNaming;
 import de.flapdoodle.embed.process.io.directories.Directory;
 import de.flapdoodle.embed.process.store.ImmutableArtifactStore.Builder;
 
 @Immutable
 public abstract class ArtifactStore implements IArtifactStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ArtifactStore.class);
+
+	private static final SingleFlight<File, Boolean> DOWNLOADS = new SingleFlight<>();
+
 	abstract DownloadConfig downloadConfig();
 
 	abstract Directory tempDirFactory();
@@ -52,6 +64,14 @@ public abstract class ArtifactStore implements IArtifactStore {
 
 	abstract Downloader downloader();
 
+	/**
+	 * extract tar archives from the download stream while it is written into the artifact store
+	 */
+	@Default
+	boolean extractWhileDownloading() {
+		return false;
+	}
+
 	@Auxiliary
 	public ArtifactStore with(Directory tempDirFactory, TempNaming executableNaming) {
 		return ImmutableArtifactStore.copyOf(this)
@@ -69,25 +89,106 @@ public abstract class ArtifactStore implements IArtifactStore {
 		return new CachingArtifactStore(this);
 	}
 
+	public CachingArtifactStore withCache(CacheEvictionPolicy evictionPolicy) {
+		return new CachingArtifactStore(this, evictionPolicy);
+	}
+
 	private boolean checkDistribution(Distribution distribution) throws IOException {
-		return LocalArtifactStore.checkArtifact(downloadConfig(), distribution) || LocalArtifactStore
-				.store(downloadConfig(), distribution, downloader().download(downloadConfig(), distribution));
+		return checkDistribution(distribution, Optional.empty());
+	}
+
+	private boolean checkDistribution(Distribution distribution, Optional<Downloader.ArchiveStreamConsumer> consumer) throws IOException {
+		if (LocalArtifactStore.checkArtifact(downloadConfig(), distribution)) {
+			return true;
+		}
+		// one download per artifact, concurrent callers wait for it, other processes too
+		File artifactFile = LocalArtifactStore.artifactFile(downloadConfig(), distribution);
+		return DOWNLOADS.run(artifactFile, () -> {
+			try (StoreLock lock = StoreLock.lock(artifactFile, downloadConfig().getTimeoutConfig().getLockTimeout())) {
+				return LocalArtifactStore.checkArtifact(downloadConfig(), distribution) || LocalArtifactStore
+						.store(downloadConfig(), distribution, consumer.isPresent()
+								? downloader().download(downloadConfig(), distribution, consumer.get())
+								: downloader().download(downloadConfig(), distribution));
+			}
+		});
 	}
 
 	@Override
 	public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+		// the janitor must not evict the archive while we extract it
+		try (StoreAccess.Lease lease = StoreAccess.lease(LocalArtifactStore.artifactFile(downloadConfig(), distribution))) {
+			return extract(distribution);
+		}
+	}
+
+	private Optional<ExtractedFileSet> extract(Distribution distribution) throws IOException {
+		PackageResolver packageResolver = downloadConfig().getPackageResolver();
+		Extractor extractor = Extractors.getExtractor(packageResolver.packageFor(distribution).archiveType());
+
+		if (extractWhileDownloading() && extractor instanceof StreamExtractor && !LocalArtifactStore.checkArtifact(downloadConfig(), distribution)) {
+			Optional<ExtractedFileSet> extracted = downloadAndExtract(distribution, (StreamExtractor) extractor);
+			if (extracted.isPresent()) {
+				return extracted;
+			}
+		}
+
 		if (checkDistribution(distribution)) {
-			PackageResolver packageResolver = downloadConfig().getPackageResolver();
 			FilesToExtract toExtract = filesToExtract(distribution);
 
-			Extractor extractor = Extractors.getExtractor(packageResolver.packageFor(distribution).archiveType());
-
 			File artifact = LocalArtifactStore.getArtifact(downloadConfig(), distribution);
 			return Optional.of(extractor.extract(downloadConfig(), artifact, toExtract));
 		}
 		return Optional.empty();
 	}
 
+	/**
+	 * empty if someone else downloaded the archive or extraction from the stream failed,
+	 * the caller extracts from the artifact store then
+	 */
+	private Optional<ExtractedFileSet> downloadAndExtract(Distribution distribution, StreamExtractor extractor) throws IOException {
+		AtomicReference<ExtractedFileSet> extracted = new AtomicReference<>();
+		FilesToExtract toExtract = filesToExtract(distribution);
+
+		boolean stored;
+		try {
+			stored = checkDistribution(distribution, Optional.of(archive -> {
+				try {
+					extracted.set(extractor.extract(downloadConfig(), archive, "Extract " + distribution + " while downloading", toExtract));
+				} catch (IOException | RuntimeException ex) {
+					logger.info("extract {} while downloading failed, extract after download", distribution, ex);
+				}
+			}));
+		} catch (IOException | RuntimeException ex) {
+			deleteIfPresent(extracted.get());
+			throw ex;
+		}
+		if (!stored) {
+			deleteIfPresent(extracted.get());
+			return Optional.empty();
+		}
+		return Optional.ofNullable(extracted.get());
+	}
+
+	private static void deleteIfPresent(ExtractedFileSet extracted) {
+		if (extracted != null) {
+			ExtractedFileSets.delete(extracted);
+		}
+	}
+
+	/**
+	 * downloads into the artifact store, extraction is done on use
+	 */
+	@Override
+	public PrefetchReport prefetch(Collection<Distribution> distributions, Executor executor) {
+		return Prefetch.run(distributions, executor, distribution -> {
+			try (StoreAccess.Lease lease = StoreAccess.lease(LocalArtifactStore.artifactFile(downloadConfig(), distribution))) {
+				if (!checkDistribution(distribution)) {
+					throw new IOException("could not store " + distribution);
+				}
+			}
+		});
+	}
+
 	FilesToExtract filesToExtract(Distribution distribution) {
 		return new FilesToExtract(tempDirFactory(), executableNaming(),
 				downloadConfig().getPackageResolver().packageFor(distribution).fileSet());
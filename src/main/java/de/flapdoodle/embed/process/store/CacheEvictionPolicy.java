@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.util.Optional;
+
+import org.immutables.value.Value;
+
+/**
+ * when CachingArtifactStore removes extracted files no one uses anymore; without any limit
+ * unused entries are kept for reuse until shutdown; entries in use are never removed, but count
+ * against maxEntries and maxBytes
+ */
+@Value.Immutable
+public interface CacheEvictionPolicy {
+
+	/**
+	 * unused entries are removed after idleTime (ms), 0 removes them on the next sweep
+	 */
+	Optional<Long> idleTime();
+
+	/**
+	 * all entries together, least recently used unused entries are removed first
+	 */
+	Optional<Integer> maxEntries();
+
+	/**
+	 * size of all extracted files together, least recently used unused entries are removed first
+	 */
+	Optional<Long> maxBytes();
+
+	/**
+	 * period (ms) of the sweep on the scheduler shared by all CachingArtifactStores
+	 */
+	@Value.Default
+	default long sweepInterval() {
+		return 10000;
+	}
+
+	@Value.Check
+	default void checkPolicy() {
+		if (idleTime().isPresent() && idleTime().get() < 0) {
+			throw new IllegalArgumentException("idleTime must not be negative: " + idleTime().get());
+		}
+		if (maxEntries().isPresent() && maxEntries().get() < 0) {
+			throw new IllegalArgumentException("maxEntries must not be negative: " + maxEntries().get());
+		}
+		if (maxBytes().isPresent() && maxBytes().get() < 0) {
+			throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes().get());
+		}
+		if (sweepInterval() <= 0) {
+			throw new IllegalArgumentException("sweepInterval must be positive: " + sweepInterval());
+		}
+	}
+
+	static ImmutableCacheEvictionPolicy.Builder builder() {
+		return ImmutableCacheEvictionPolicy.builder();
+	}
+
+	static ImmutableCacheEvictionPolicy defaults() {
+		return builder().build();
+	}
+}
@@ -23,66 +23,88 @@
  */
 package de.flapdoodle.embed.process.store;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.extract.ExtractedFileSet;
+import de.flapdoodle.embed.process.io.file.Files;
 import de.flapdoodle.embed.process.runtime.ProcessControl;
 
+/**
+ * extracted files are shared by all users of a distribution and removed if no one uses them anymore,
+ * lookups for different distributions do not wait for each other; when unused files are removed
+ * is up to the CacheEvictionPolicy
+ */
 public class CachingArtifactStore implements IArtifactStore {
 
 	private static final Logger logger = LoggerFactory.getLogger(CachingArtifactStore.class);
 
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "caching-artifact-store");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	private final IArtifactStore delegate;
 
-	private final Object lock = new Object();
+	private final CacheEvictionPolicy evictionPolicy;
 
-	private final HashMap<Distribution, FilesWithCounter> distributionFiles = new HashMap<>();
+	private final ConcurrentMap<Distribution, FilesWithCounter> distributionFiles = new ConcurrentHashMap<>();
 
-	private final ScheduledExecutorService executor;
+	private final ScheduledFuture<?> sweep;
 
 	public CachingArtifactStore(IArtifactStore delegate) {
+		this(delegate, CacheEvictionPolicy.defaults());
+	}
+
+	public CachingArtifactStore(IArtifactStore delegate, CacheEvictionPolicy evictionPolicy) {
 		this.delegate = delegate;
+		this.evictionPolicy = evictionPolicy;
 		ProcessControl.addShutdownHook(new CacheCleaner());
 
-		executor = Executors.newSingleThreadScheduledExecutor(new CustomThreadFactory());
-		executor.scheduleAtFixedRate(new RemoveUnused(), 10, 10, TimeUnit.SECONDS);
+		sweep = SCHEDULER.scheduleWithFixedDelay(new RemoveUnused(), evictionPolicy.sweepInterval(), evictionPolicy.sweepInterval(), TimeUnit.MILLISECONDS);
 	}
 
 	@Override
 	public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
-
-		FilesWithCounter fileWithCounter;
-
-		synchronized (lock) {
-			fileWithCounter = distributionFiles.get(distribution);
-			if (fileWithCounter == null) {
-				logger.debug("cache NOT found for {}", distribution);
-				fileWithCounter = new FilesWithCounter(distribution);
-				distributionFiles.put(distribution, fileWithCounter);
-			} else {
-				logger.debug("cache found for {}", distribution);
+		while (true) {
+			FilesWithCounter fileWithCounter = distributionFiles.computeIfAbsent(distribution, FilesWithCounter::new);
+			if (fileWithCounter.acquire()) {
+				return fileWithCounter.use();
 			}
+			// removed since we got it, try again with a new one
+			distributionFiles.remove(distribution, fileWithCounter);
 		}
+	}
 
-		return fileWithCounter.use();
+	@Override
+	public PrefetchReport prefetch(Collection<Distribution> distributions, Executor executor) {
+		return delegate.prefetch(distributions, executor);
 	}
 
 	@Override
 	public void removeFileSet(Distribution distribution, ExtractedFileSet executable) {
-		FilesWithCounter fileWithCounter;
-		synchronized (lock) {
-			fileWithCounter = distributionFiles.get(distribution);
-		}
+		FilesWithCounter fileWithCounter = distributionFiles.get(distribution);
 		if (fileWithCounter != null) {
 			fileWithCounter.free(executable);
 		} else {
@@ -91,88 +113,192 @@ public class CachingArtifactStore implements IArtifactStore {
 	}
 
 	protected void removeAll() {
-		synchronized (lock) {
-			for (FilesWithCounter fc : distributionFiles.values()) {
-				fc.forceDelete();
-			}
-			distributionFiles.clear();
+		for (FilesWithCounter fc : distributionFiles.values()) {
+			fc.forceDelete();
 		}
 	}
 
+	/**
+	 * removes unused entries idle for longer than idleTime (if set), then the least recently used
+	 * unused entries until maxEntries and maxBytes are met
+	 */
 	public void removeUnused() {
-		synchronized (lock) {
-			for (FilesWithCounter fc : distributionFiles.values()) {
-				fc.cleanup();
+		long now = System.nanoTime();
+
+		List<FilesWithCounter> retained = new ArrayList<>();
+		for (FilesWithCounter fc : distributionFiles.values()) {
+			if (!(fc.isUnused() && idle(fc, now) && fc.cleanup())) {
+				retained.add(fc);
 			}
 		}
-	}
 
-	protected void shutdownExecutor() {
-		executor.shutdown();
-		try	{
-			if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
-				for (Runnable r : executor.shutdownNow()) {
-					logger.warn("Terminated job of type {}", r.getClass().getName());
-				}
-				if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
-					logger.error("Executor did not terminate.");
-				}
+		int entries = retained.size();
+		long bytes = retained.stream().mapToLong(FilesWithCounter::size).sum();
+		retained.sort(Comparator.comparingLong(FilesWithCounter::lastUsed));
+		for (FilesWithCounter fc : retained) {
+			boolean tooMany = evictionPolicy.maxEntries().isPresent() && entries > evictionPolicy.maxEntries().get();
+			boolean tooLarge = evictionPolicy.maxBytes().isPresent() && bytes > evictionPolicy.maxBytes().get();
+			if (!tooMany && !tooLarge) {
+				break;
 			}
-			if (!executor.isShutdown()) {
-				executor.shutdownNow();
+			if (fc.isUnused() && fc.cleanup()) {
+				entries--;
+				bytes -= fc.size();
 			}
-		} catch (InterruptedException ie)	{
-			executor.shutdownNow();
 		}
 	}
 
+	private boolean idle(FilesWithCounter fc, long now) {
+		return evictionPolicy.idleTime().isPresent()
+				&& now - fc.lastUsed() >= TimeUnit.MILLISECONDS.toNanos(evictionPolicy.idleTime().get());
+	}
+
+	/**
+	 * stops the sweep of this store, the scheduler is shared
+	 */
+	protected void shutdownExecutor() {
+		sweep.cancel(false);
+	}
+
 
+	private static long sizeOf(ExtractedFileSet files) {
+		long size = Files.fileOf(files.baseDir(), files.executable()).length();
+		for (File library : files.libraryFiles()) {
+			size += Files.fileOf(files.baseDir(), library).length();
+		}
+		return size;
+	}
+
+	/**
+	 * counter is incremented before and decremented after use, REMOVED once the files are gone,
+	 * the first user extracts, everyone else waits only for this distribution
+	 */
 	class FilesWithCounter {
 
-		private Optional<ExtractedFileSet> file;
-		private int counter =0;
+		private static final int REMOVED = Integer.MIN_VALUE;
+
 		private final Distribution distribution;
+		private final AtomicInteger counter = new AtomicInteger();
+		private final AtomicLong lastUsed = new AtomicLong(System.nanoTime());
+		private volatile long size;
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CompletableFuture<Optional<ExtractedFileSet>> file = new CompletableFuture<>();
 
 		public FilesWithCounter(Distribution distribution) {
 			this.distribution = distribution;
 		}
 
-		public synchronized void free(ExtractedFileSet executable) {
-			if (file==null) throw new RuntimeException("nothing to free");
-			if (executable!= file.orElse(null)) throw new RuntimeException("Files does not match: "+ file +" != "+executable);
-			logger.debug("Free {} {}", counter, file);
-			counter--;
+		boolean acquire() {
+			int current;
+			do {
+				current = counter.get();
+				if (current == REMOVED) {
+					return false;
+				}
+			} while (!counter.compareAndSet(current, current + 1));
+			lastUsed.set(System.nanoTime());
+			return true;
+		}
+
+		long lastUsed() {
+			return lastUsed.get();
+		}
+
+		/**
+		 * bytes of all extracted files
+		 */
+		long size() {
+			return size;
+		}
+
+		boolean isUnused() {
+			int current = counter.get();
+			return current <= 0 && current != REMOVED && file.isDone();
+		}
+
+		public void free(ExtractedFileSet executable) {
+			if (!file.isDone() || file.isCompletedExceptionally()) throw new RuntimeException("nothing to free");
+			Optional<ExtractedFileSet> current = file.getNow(null);
+			if (current == null || executable != current.orElse(null)) throw new RuntimeException("Files does not match: "+ current +" != "+executable);
+			logger.debug("Free {} {}", counter, current);
+			release();
 		}
 
-		public synchronized Optional<ExtractedFileSet> use() throws IOException {
-			counter++;
-			
-			if (file ==null) {
-				file = delegate.extractFileSet(distribution);
-				logger.debug("Not Cached {} {}", counter, file);
-			} else {
-				logger.debug("Cached {} {}", counter, file);
+		private void release() {
+			int current;
+			do {
+				current = counter.get();
+				if (current == REMOVED) {
+					return;
+				}
+			} while (!counter.compareAndSet(current, current - 1));
+			lastUsed.set(System.nanoTime());
+		}
+
+		/**
+		 * caller must have acquired
+		 */
+		public Optional<ExtractedFileSet> use() throws IOException {
+			if (started.compareAndSet(false, true)) {
+				try {
+					Optional<ExtractedFileSet> extracted = delegate.extractFileSet(distribution);
+					size = extracted.map(CachingArtifactStore::sizeOf).orElse(0L);
+					file.complete(extracted);
+					logger.debug("Not Cached {} {}", counter, extracted);
+					return extracted;
+				} catch (IOException | RuntimeException | Error ex) {
+					// next caller should try again
+					file.completeExceptionally(ex);
+					counter.set(REMOVED);
+					distributionFiles.remove(distribution, this);
+					throw ex;
+				}
+			}
+			try {
+				Optional<ExtractedFileSet> extracted = SingleFlight.await(file);
+				logger.debug("Cached {} {}", counter, extracted);
+				return extracted;
+			} catch (IOException | RuntimeException | Error ex) {
+				release();
+				throw ex;
 			}
-			return file;
 		}
-		
-		public synchronized void cleanup() {
-			if (counter <=0) {
-				if (counter <0) logger.warn("Counter < 0 for {} and {}", distribution, file);
-				if (file !=null) {
-					logger.debug("cleanup for {} and {}", distribution, file);
-					if (file.isPresent()) delegate.removeFileSet(distribution, file.get());
-					file =null;
+
+		/**
+		 * @return true if the files were removed
+		 */
+		public boolean cleanup() {
+			if (!file.isDone()) {
+				return false;
+			}
+			int current;
+			do {
+				current = counter.get();
+				if (current > 0 || current == REMOVED) {
+					return false;
 				}
+			} while (!counter.compareAndSet(current, REMOVED));
+			if (current < 0) logger.warn("Counter < 0 for {} and {}", distribution, file);
+			distributionFiles.remove(distribution, this);
+			delete("cleanup");
+			return true;
+		}
+
+		/**
+		 * an extraction still in flight is deleted as soon as it is complete
+		 */
+		public void forceDelete() {
+			if (counter.getAndSet(REMOVED) != REMOVED) {
+				distributionFiles.remove(distribution, this);
+				file.whenComplete((files, ex) -> delete("force delete"));
 			}
 		}
-		
-		public synchronized void forceDelete() {
-			if (file !=null) {
-				logger.debug("force delete for {} and {}", distribution, file);
-				if (file.isPresent()) delegate.removeFileSet(distribution, file.get());
-				file =null;
-				counter =0;
+
+		private void delete(String reason) {
+			Optional<ExtractedFileSet> current = file.isCompletedExceptionally() ? null : file.getNow(null);
+			if (current != null && current.isPresent()) {
+				logger.debug("{} for {} and {}", reason, distribution, current);
+				delegate.removeFileSet(distribution, current.get());
 			}
 		}
 	}
@@ -181,7 +307,12 @@ public class CachingArtifactStore implements IArtifactStore {
 
 		@Override
 		public void run() {
-			CachingArtifactStore.this.removeUnused();
+			try {
+				CachingArtifactStore.this.removeUnused();
+			} catch (RuntimeException rx) {
+				// keep the sweep scheduled
+				logger.warn("could not remove unused files", rx);
+			}
 		}
 		
 	}
@@ -194,17 +325,4 @@ public class CachingArtifactStore implements IArtifactStore {
 			CachingArtifactStore.this.shutdownExecutor();
 		}
 	}
-
-	class CustomThreadFactory implements ThreadFactory {
-
-		private final ThreadFactory factory=Executors.defaultThreadFactory();
-		
-		@Override
-		public Thread newThread(Runnable runnable) {
-			Thread ret = factory.newThread(runnable);
-			ret.setDaemon(true);
-			return ret;
-		}
-		
-	}
 }
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.ProxyFactory;
+import de.flapdoodle.embed.process.distribution.Distribution;
+
+/**
+ * not part of public api
+ *
+ * sha-256 verification of downloaded archives
+ */
+class Checksum {
+
+	private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+	private static final int MAX_CHECKSUM_FILE_LENGTH = 64 * 1024;
+	private static final int BUFFER_LENGTH = 1024 * 8 * 8;
+	private static final int MAX_VERIFIED = 64;
+
+	// hashed while they were downloaded, a file which is never stored is dropped after MAX_VERIFIED others
+	private static final Map<File, Verified> VERIFIED = Collections.synchronizedMap(new LinkedHashMap<File, Verified>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, Verified> eldest) {
+			return size() > MAX_VERIFIED;
+		}
+	});
+
+	private Checksum() {
+		// no instance
+	}
+
+	/**
+	 * expectedSha256 of the package, or the content of the sha256Path file if set
+	 */
+	static Optional<String> expectedSha256(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		return expectedSha256(downloadConfig, distribution, downloadConfig.getDownloadPath().getPath(distribution));
+	}
+
+	/**
+	 * like expectedSha256(DownloadConfig, Distribution), the sha256Path file is read from downloadPath
+	 */
+	static Optional<String> expectedSha256(DownloadConfig downloadConfig, Distribution distribution, String downloadPath) throws IOException {
+		DistributionPackage distributionPackage = downloadConfig.getPackageResolver().packageFor(distribution);
+		if (distributionPackage.expectedSha256().isPresent()) {
+			return Optional.of(parse(distributionPackage.expectedSha256().get()));
+		}
+		if (distributionPackage.sha256Path().isPresent()) {
+			URL url = new URL(downloadPath + distributionPackage.sha256Path().get());
+			Optional<Proxy> proxy = downloadConfig.proxyFactory().map(ProxyFactory::createProxy);
+			URLConnection connection = UrlConnectionDownloader.openConnection(downloadConfig, url, proxy);
+			try (InputStream in = connection.getInputStream()) {
+				return Optional.of(parse(read(in)));
+			} catch (IOException iox) {
+				throw new IOException("Could not read checksum from " + url, iox);
+			}
+		}
+		return Optional.empty();
+	}
+
+	static String checksumUrl(DownloadConfig downloadConfig, Distribution distribution, String sha256Path) {
+		return downloadConfig.getDownloadPath().getPath(distribution) + sha256Path;
+	}
+
+	/**
+	 * first token of a checksum file, sha256sum writes "hash  filename"
+	 */
+	static String parse(String content) throws IOException {
+		String trimmed = content.trim();
+		String[] tokens = trimmed.split("\\s+", 2);
+		String hash = tokens[0].toLowerCase(Locale.ROOT);
+		if (!SHA256.matcher(hash).matches()) {
+			throw new IOException("not a sha-256 checksum: " + (trimmed.length() > 80 ? trimmed.substring(0, 80) + "..." : trimmed));
+		}
+		return hash;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int read;
+		while ((read = in.read(buf)) != -1 && out.size() < MAX_CHECKSUM_FILE_LENGTH) {
+			out.write(buf, 0, read);
+		}
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsax) {
+			throw new IllegalStateException("every java platform must support SHA-256", nsax);
+		}
+	}
+
+	/**
+	 * adds the first length bytes of channel to digest, the channel position is not changed
+	 */
+	static void update(MessageDigest digest, FileChannel channel, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_LENGTH);
+		long position = 0;
+		while (position < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - position));
+			int read = channel.read(buffer, position);
+			if (read == -1) {
+				throw new IOException("file ended after " + position + " of " + length + " bytes");
+			}
+			position = position + read;
+			buffer.flip();
+			digest.update(buffer);
+		}
+	}
+
+	static String sha256(File file) throws IOException {
+		MessageDigest digest = sha256();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			update(digest, channel, channel.size());
+		}
+		return hex(digest.digest());
+	}
+
+	/**
+	 * remembers the sha-256 of a download, which was computed while it was written
+	 */
+	static File verified(File file, String sha256) {
+		VERIFIED.put(file.getAbsoluteFile(), new Verified(sha256, file.length(), file.lastModified()));
+		return file;
+	}
+
+	/**
+	 * the sha-256 remembered by verified(), if the file did not change since, else the file is read
+	 */
+	static String sha256Of(File file) throws IOException {
+		Verified verified = VERIFIED.remove(file.getAbsoluteFile());
+		if (verified != null && verified.length == file.length() && verified.lastModified == file.lastModified()) {
+			return verified.sha256;
+		}
+		return sha256(file);
+	}
+
+	static String hex(byte[] digest) {
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	static void verify(String url, String expected, MessageDigest digest) throws IOException {
+		String actual = hex(digest.digest());
+		if (!expected.equals(actual)) {
+			throw new ChecksumMismatchException("sha-256 of " + url + " is " + actual + ", expected " + expected);
+		}
+	}
+
+	private static class Verified {
+
+		private final String sha256;
+		private final long length;
+		private final long lastModified;
+
+		Verified(String sha256, long length, long lastModified) {
+			this.sha256 = sha256;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+
+	static class ChecksumMismatchException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		ChecksumMismatchException(String message) {
+			super(message);
+		}
+	}
+}
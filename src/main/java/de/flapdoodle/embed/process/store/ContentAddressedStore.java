@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.io.file.Files;
+
+/**
+ * not part of public api
+ *
+ * artifact store with one blob per content (sha256/&lt;hash&gt;) and an index archivePath -&gt; hash
+ * (sha256/index.properties), archivePath entries are hardlinks to the blob (copies if the file system
+ * does not support links), so the same archive under different paths is stored once
+ */
+class ContentAddressedStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ContentAddressedStore.class);
+
+	static final String BLOB_DIR = "sha256";
+	static final String INDEX = "index.properties";
+
+	private static final ConcurrentMap<File, Index> INDEX_OF_STORE = new ConcurrentHashMap<>();
+
+	private ContentAddressedStore() {
+		// no instance
+	}
+
+	/**
+	 * index lookup, the index file is only read again if an entry or its blob is missing, an entry
+	 * without blob (removed by another process or by hand) is dropped, so the archive is downloaded again
+	 */
+	static Optional<File> blob(File storeDir, String archivePath) {
+		Index index = index(storeDir);
+		Optional<File> blob = index.hashOf(archivePath).map(it -> blobFile(storeDir, it));
+		if (blob.isPresent() && blob.get().isFile()) {
+			return blob;
+		}
+		blob = index.reload().hashOf(archivePath).map(it -> blobFile(storeDir, it));
+		if (blob.isPresent() && !blob.get().isFile()) {
+			logger.warn("blob {} of {} is missing, drop index entry", blob.get(), archivePath);
+			try {
+				index.remove(archivePath);
+			} catch (IOException iox) {
+				logger.warn("could not drop index entry of {}", archivePath, iox);
+			}
+			return Optional.empty();
+		}
+		return blob;
+	}
+
+	static File store(File storeDir, String archivePath, File download) throws IOException {
+		String hash = Checksum.sha256Of(download);
+		File blob = blobFile(storeDir, hash);
+		Files.createOrCheckDir(blob.getParentFile());
+		if (blob.isFile()) {
+			logger.debug("{} is already stored as {}", archivePath, blob);
+			Files.forceDelete(download);
+		} else {
+			try {
+				Files.moveFile(download, blob);
+			} catch (FileAlreadyExistsException faex) {
+				// stored concurrently
+				Files.forceDelete(download);
+			}
+		}
+
+		File entry = new File(storeDir, archivePath);
+		Files.createOrCheckDir(entry.getParentFile());
+		link(blob, entry);
+
+		index(storeDir).put(archivePath, hash);
+		return blob;
+	}
+
+	static boolean isContentAddressed(File storeDir) {
+		return new File(new File(storeDir, BLOB_DIR), INDEX).isFile();
+	}
+
+	/**
+	 * removes the archivePath entry, and the blob if no other entry has the same content
+	 */
+	static void evict(File storeDir, String archivePath) throws IOException {
+		java.nio.file.Files.deleteIfExists(new File(storeDir, archivePath).toPath());
+		Optional<String> hash = index(storeDir).remove(archivePath);
+		if (hash.isPresent() && !index(storeDir).contains(hash.get())) {
+			java.nio.file.Files.deleteIfExists(blobFile(storeDir, hash.get()).toPath());
+		}
+	}
+
+	private static void link(File blob, File entry) throws IOException {
+		if (entry.exists()) {
+			if (java.nio.file.Files.isSameFile(entry.toPath(), blob.toPath())) {
+				return;
+			}
+			java.nio.file.Files.delete(entry.toPath());
+		}
+		try {
+			java.nio.file.Files.createLink(entry.toPath(), blob.toPath());
+		} catch (FileAlreadyExistsException faex) {
+			// linked concurrently
+		} catch (UnsupportedOperationException | IOException iox) {
+			logger.debug("could not link {} to {}, copy instead", entry, blob, iox);
+			try {
+				java.nio.file.Files.copy(blob.toPath(), entry.toPath());
+			} catch (FileAlreadyExistsException faex) {
+				// copied concurrently
+			}
+		}
+	}
+
+	private static File blobFile(File storeDir, String hash) {
+		return new File(new File(storeDir, BLOB_DIR), hash);
+	}
+
+	private static Index index(File storeDir) {
+		return INDEX_OF_STORE.computeIfAbsent(storeDir, dir -> new Index(new File(new File(dir, BLOB_DIR), INDEX)).reload());
+	}
+
+	static class Index {
+
+		private final File file;
+		private volatile Properties entries = new Properties();
+
+		Index(File file) {
+			this.file = file;
+		}
+
+		Optional<String> hashOf(String archivePath) {
+			return Optional.ofNullable(entries.getProperty(archivePath));
+		}
+
+		synchronized Index reload() {
+			entries = read();
+			return this;
+		}
+
+		/**
+		 * merges with the index on disk, another process may have added entries, and replaces it atomically,
+		 * an entry lost to a concurrent writer only costs a download
+		 */
+		synchronized void put(String archivePath, String hash) throws IOException {
+			Properties merged = read();
+			merged.setProperty(archivePath, hash);
+			write(merged);
+			entries = merged;
+		}
+
+		private void write(Properties properties) throws IOException {
+			File temp = new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp");
+			try (OutputStream out = new FileOutputStream(temp)) {
+				properties.store(out, "archivePath -> sha-256");
+			}
+			java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		synchronized Optional<String> remove(String archivePath) throws IOException {
+			Properties merged = read();
+			Optional<String> hash = Optional.ofNullable((String) merged.remove(archivePath));
+			if (hash.isPresent()) {
+				write(merged);
+			}
+			entries = merged;
+			return hash;
+		}
+
+		boolean contains(String hash) {
+			return entries.containsValue(hash);
+		}
+
+		private Properties read() {
+			Properties properties = new Properties();
+			if (file.isFile()) {
+				try (InputStream in = new FileInputStream(file)) {
+					properties.load(in);
+				} catch (IOException iox) {
+					logger.warn("could not read {}", file, iox);
+				}
+			}
+			return properties;
+		}
+	}
+}
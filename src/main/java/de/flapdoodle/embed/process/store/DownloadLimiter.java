@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.DownloadLimits;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
+
+/**
+ * not part of public api
+ *
+ * concurrency cap and token bucket for DownloadLimits, one instance per limits in this jvm,
+ * so they apply to every downloader
+ */
+class DownloadLimiter {
+
+	private static final ConcurrentMap<DownloadLimits, DownloadLimiter> LIMITERS = new ConcurrentHashMap<>();
+	private static final DownloadLimiter UNLIMITED = new DownloadLimiter(Optional.empty(), Optional.empty());
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final Optional<Integer> maxConcurrent;
+	private final Optional<Long> bytesPerSecond;
+
+	private final Deque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+	private int running = 0;
+
+	private double tokens;
+	private long refilledAt = System.nanoTime();
+
+	private DownloadLimiter(Optional<Integer> maxConcurrent, Optional<Long> bytesPerSecond) {
+		this.maxConcurrent = maxConcurrent;
+		this.bytesPerSecond = bytesPerSecond;
+		this.tokens = bytesPerSecond.orElse(0L);
+	}
+
+	static DownloadLimiter of(DownloadConfig downloadConfig) {
+		DownloadLimits limits = downloadConfig.getDownloadLimits();
+		if (!limits.maxConcurrentDownloads().isPresent() && !limits.maxBytesPerSecond().isPresent()) {
+			return UNLIMITED;
+		}
+		return LIMITERS.computeIfAbsent(limits, it -> new DownloadLimiter(it.maxConcurrentDownloads(), it.maxBytesPerSecond()));
+	}
+
+	/**
+	 * completes as soon as there is a free download slot, in order of arrival
+	 */
+	CompletableFuture<Permit> acquireAsync() {
+		CompletableFuture<Permit> permit = new CompletableFuture<>();
+		synchronized (waiting) {
+			if (!maxConcurrent.isPresent() || running < maxConcurrent.get()) {
+				running++;
+				permit.complete(new Permit());
+			} else {
+				waiting.add(permit);
+			}
+		}
+		return permit;
+	}
+
+	/**
+	 * waits for a free download slot, the time spent waiting is reported as progress info
+	 */
+	Permit acquire(ProgressListener progress, String progressLabel) throws IOException {
+		long startedAt = System.currentTimeMillis();
+		CompletableFuture<Permit> permit = acquireAsync();
+		if (!permit.isDone()) {
+			progress.info(progressLabel, "waiting for a download slot");
+		}
+		try {
+			Permit ret = permit.get();
+			queued(progress, progressLabel, startedAt);
+			return ret;
+		} catch (InterruptedException ix) {
+			if (!permit.cancel(false)) {
+				permit.join().close();
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a download slot");
+		} catch (ExecutionException ex) {
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	static void queued(ProgressListener progress, String progressLabel, long startedAt) {
+		long queued = System.currentTimeMillis() - startedAt;
+		if (queued > 0) {
+			progress.info(progressLabel, "queued for " + queued + "ms");
+		}
+	}
+
+	private void release() {
+		synchronized (waiting) {
+			CompletableFuture<Permit> next;
+			while ((next = waiting.poll()) != null) {
+				if (next.complete(new Permit())) {
+					return;
+				}
+				// cancelled while waiting
+			}
+			running--;
+		}
+	}
+
+	/**
+	 * takes bytes from the bucket, the caller should wait the returned nanos before it reads more
+	 */
+	long reserve(long bytes) {
+		if (!bytesPerSecond.isPresent()) {
+			return 0;
+		}
+		long rate = bytesPerSecond.get();
+		synchronized (this) {
+			long now = System.nanoTime();
+			// at most one second of burst
+			tokens = Math.min(rate, tokens + (double) (now - refilledAt) * rate / NANOS_PER_SECOND);
+			refilledAt = now;
+			tokens = tokens - bytes;
+			return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / rate);
+		}
+	}
+
+	void throttle(long bytes) throws IOException {
+		long wait = reserve(bytes);
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException ix) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while throttling download");
+			}
+		}
+	}
+
+	InputStream throttled(InputStream in) {
+		if (!bytesPerSecond.isPresent()) {
+			return in;
+		}
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int ret = super.read();
+				if (ret != -1) {
+					throttle(1);
+				}
+				return ret;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					throttle(read);
+				}
+				return read;
+			}
+		};
+	}
+
+	class Permit implements Closeable {
+
+		private boolean released = false;
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			release();
+		}
+	}
+}
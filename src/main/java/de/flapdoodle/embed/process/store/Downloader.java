@@ -24,7 +24,9 @@
 package de.flapdoodle.embed.process.store;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
@@ -36,8 +38,29 @@ public interface Downloader {
     String getDownloadUrl(DownloadConfig runtime, Distribution distribution);
 
     File download(DownloadConfig runtime, Distribution distribution) throws IOException;
+
+    /**
+     * downloads like download(runtime, distribution) and passes the archive to consumer as a stream,
+     * implementations may call consumer on another thread while bytes are still arriving, it is done
+     * when this method returns; this default reads the finished download
+     */
+    default File download(DownloadConfig runtime, Distribution distribution, ArchiveStreamConsumer consumer) throws IOException {
+    	File download = download(runtime, distribution);
+    	try (InputStream in = new FileInputStream(download)) {
+    		consumer.accept(in);
+    	}
+    	return download;
+    }
     
     public static Downloader platformDefault() {
     	return new UrlConnectionDownloader();
     }
+
+    @FunctionalInterface
+    interface ArchiveStreamConsumer {
+    	/**
+    	 * must handle its own failures, they do not affect the download
+    	 */
+    	void accept(InputStream archive);
+    }
 }
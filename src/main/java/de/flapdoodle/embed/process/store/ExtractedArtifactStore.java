@@ -24,36 +24,70 @@
 package de.flapdoodle.embed.process.store;
 
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
-import de.flapdoodle.embed.process.config.store.FileSet;
-import de.flapdoodle.embed.process.config.store.FileType;
 import de.flapdoodle.embed.process.config.store.ImmutableDownloadConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.extract.*;
-import de.flapdoodle.embed.process.extract.ImmutableExtractedFileSet.Builder;
 import de.flapdoodle.embed.process.io.directories.Directory;
 import de.flapdoodle.embed.process.io.file.FileAlreadyExistsException;
 import de.flapdoodle.os.Version;
+import org.immutables.value.Value.Default;
 import org.immutables.value.Value.Immutable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 @Immutable
 public abstract class ExtractedArtifactStore implements IArtifactStore {
 
+	private static final SingleFlight<File, ExtractedFileSet> EXTRACTIONS = new SingleFlight<>();
+
+	// executable of a symlinked file set -> lease on the extracted tree the links point into
+	private static final ConcurrentMap<File, StoreAccess.Lease> SYMLINK_LEASES = new ConcurrentHashMap<>();
+
 	abstract DownloadConfig downloadConfig();
 	abstract Downloader downloader();
 	abstract DirectoryAndExecutableNaming extraction();
 	abstract DirectoryAndExecutableNaming temp();
 
+	/**
+	 * @see ArtifactStore#extractWhileDownloading()
+	 */
+	@Default
+	boolean extractWhileDownloading() {
+		return false;
+	}
+
+	/**
+	 * record a sha-256 of every extracted file, so that verify() can detect modified files
+	 * of the same size and modification time
+	 */
+	@Default
+	boolean hashExtractedFiles() {
+		return false;
+	}
+
+	/**
+	 * how the extracted files are put into the temp directory on every extractFileSet,
+	 * with SYMLINK the extracted tree is leased until removeFileSet, so the janitor keeps it
+	 */
+	@Default
+	CopyStrategy copyStrategy() {
+		return CopyStrategy.COPY;
+	}
+
 	private ArtifactStore store(Directory withDistribution, TempNaming naming) {
 		return ArtifactStore.builder()
 				.downloadConfig(downloadConfig())
 				.tempDirFactory(withDistribution)
 				.executableNaming(naming)
 				.downloader(downloader())
+				.extractWhileDownloading(extractWhileDownloading())
 				.build();
 	}
 	
@@ -71,43 +105,101 @@ public abstract class ExtractedArtifactStore implements IArtifactStore {
 	@Override
 	public Optional<ExtractedFileSet> extractFileSet(Distribution distribution)
 			throws IOException {
-		
+		// the janitor must not evict the extracted tree while we copy it, or while symlinks point into it
+		StoreAccess.Lease lease = StoreAccess.lease(destinationDir(distribution));
+		boolean keepLease = false;
+		try {
+			ExtractedFileSet extractedFileSet = extracted(distribution);
+			ExtractedFileSet copy = ExtractedFileSets.copy(extractedFileSet, temp().getDirectory(), temp().getExecutableNaming(), copyStrategy());
+			if (copyStrategy() == CopyStrategy.SYMLINK) {
+				SYMLINK_LEASES.put(copy.executable().getAbsoluteFile(), lease);
+				keepLease = true;
+			}
+			return Optional.of(copy);
+		} finally {
+			if (!keepLease) {
+				lease.close();
+			}
+		}
+	}
+
+	/**
+	 * downloads and extracts into the extraction directory, without a copy into the temp directory
+	 */
+	@Override
+	public PrefetchReport prefetch(Collection<Distribution> distributions, Executor executor) {
+		return Prefetch.run(distributions, executor, distribution -> {
+			try (StoreAccess.Lease lease = StoreAccess.lease(destinationDir(distribution))) {
+				extracted(distribution);
+			}
+		});
+	}
+
+	/**
+	 * there is a complete extraction of distribution, nothing to download or extract
+	 */
+	boolean isExtracted(Distribution distribution) {
+		return ExtractionManifest.complete(destinationDir(distribution), extraction().getDirectory().isGenerated()).isPresent();
+	}
+
+	private File destinationDir(Distribution distribution) {
+		return new File(extraction().getDirectory().asFile(), asPath(distribution)).getAbsoluteFile();
+	}
+
+	private ExtractedFileSet extracted(Distribution distribution) throws IOException {
 		Directory withDistribution = withDistribution(extraction().getDirectory(), distribution);
-		ArtifactStore baseStore = store(withDistribution, extraction().getExecutableNaming());
-		
-		boolean foundExecutable=false;
 		File destinationDir = withDistribution.asFile();
-		
-		Builder fileSetBuilder = ExtractedFileSet.builder(destinationDir)
-				.baseDirIsGenerated(withDistribution.isGenerated());
-		
-		FilesToExtract filesToExtract = baseStore.filesToExtract(distribution);
-		for (FileSet.Entry file : filesToExtract.files()) {
-			if (file.type()==FileType.Executable) {
-				String executableName = FilesToExtract.executableName(extraction().getExecutableNaming(), file);
-				File executableFile = new File(executableName);
-				File resolvedExecutableFile = new File(destinationDir, executableName);
-				if (resolvedExecutableFile.isFile()) {
-					foundExecutable=true;
-				}
-				fileSetBuilder.executable(executableFile);
-			} else {
-				fileSetBuilder.addLibraryFiles(new File(FilesToExtract.fileName(file)));
+
+		// one extraction per destination, concurrent callers and processes wait for it
+		return EXTRACTIONS.run(destinationDir.getAbsoluteFile(), () -> {
+			try (StoreLock lock = StoreLock.lock(destinationDir.getAbsoluteFile(), downloadConfig().getTimeoutConfig().getLockTimeout())) {
+				return extractedFileSet(withDistribution, destinationDir, distribution);
 			}
+		});
+	}
+
+	private ExtractedFileSet extractedFileSet(Directory withDistribution, File destinationDir, Distribution distribution) throws IOException {
+		Optional<ExtractedFileSet> complete = ExtractionManifest.complete(destinationDir, withDistribution.isGenerated());
+		if (complete.isPresent()) {
+			return complete.get();
 		}
 
+		// nothing there, an interrupted or modified extraction: start over
+		ExtractionManifest.invalidate(destinationDir);
+		deleteContent(destinationDir);
+		ArtifactStore baseStore = store(withDistribution, extraction().getExecutableNaming());
 		ExtractedFileSet extractedFileSet;
-		if (!foundExecutable) {
-			// we found no executable, so we trigger extraction and hope for the best
-			try {
-				extractedFileSet = baseStore.extractFileSet(distribution).get();
-			} catch (FileAlreadyExistsException fx) {
-				throw new RuntimeException("extraction to "+destinationDir+" has failed", fx);
+		try {
+			extractedFileSet = baseStore.extractFileSet(distribution).get();
+		} catch (FileAlreadyExistsException fx) {
+			throw new RuntimeException("extraction to "+destinationDir+" has failed", fx);
+		}
+		ExtractionManifest.write(destinationDir, extractedFileSet, hashExtractedFiles());
+		return extractedFileSet;
+	}
+
+	/**
+	 * compares the extracted files of distribution with the hashes recorded on extraction (see hashExtractedFiles()),
+	 * size and modification time only if there are none; if they do not match the next extractFileSet extracts again
+	 */
+	public boolean verify(Distribution distribution) throws IOException {
+		File destinationDir = destinationDir(distribution);
+		try (StoreLock lock = StoreLock.lock(destinationDir, downloadConfig().getTimeoutConfig().getLockTimeout())) {
+			if (ExtractionManifest.verify(destinationDir)) {
+				return true;
+			}
+			ExtractionManifest.invalidate(destinationDir);
+			return false;
+		}
+	}
+
+	private static void deleteContent(File dir) throws IOException {
+		File[] content = dir.listFiles();
+		if (content != null) {
+			for (File file : content) {
+				de.flapdoodle.embed.process.io.file.Files.forceDelete(file.toPath());
 			}
-		} else {
-			extractedFileSet = fileSetBuilder.build();
 		}
-		return Optional.ofNullable(ExtractedFileSets.copy(extractedFileSet, temp().getDirectory(), temp().getExecutableNaming()));
 	}
 
 	private static Directory withDistribution(final Directory dir, final Distribution distribution) {
@@ -141,7 +233,14 @@ public abstract class ExtractedArtifactStore implements IArtifactStore {
 	
 	@Override
 	public void removeFileSet(Distribution distribution, ExtractedFileSet files) {
-		ExtractedFileSets.delete(files);
+		try {
+			ExtractedFileSets.delete(files);
+		} finally {
+			StoreAccess.Lease lease = SYMLINK_LEASES.remove(files.executable().getAbsoluteFile());
+			if (lease != null) {
+				lease.close();
+			}
+		}
 	}
 	
 	public static ImmutableExtractedArtifactStore.Builder builder() {
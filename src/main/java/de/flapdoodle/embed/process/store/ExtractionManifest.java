@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.extract.ExtractedFileSet;
+import de.flapdoodle.embed.process.extract.ImmutableExtractedFileSet.Builder;
+
+/**
+ * not part of public api
+ *
+ * type, size, modification time and (optional) sha-256 of every extracted file, written after a successful
+ * extraction together with a completion marker; a crash during extraction leaves no marker, a file
+ * changed or truncated afterwards no longer matches the manifest, so the extraction is done again
+ */
+class ExtractionManifest {
+
+	private static final Logger logger = LoggerFactory.getLogger(ExtractionManifest.class);
+
+	static final String MANIFEST = ".extraction.properties";
+	static final String COMPLETE = ".extraction.complete";
+
+	private static final String SEPARATOR = ",";
+
+	private ExtractionManifest() {
+		// no instance
+	}
+
+	static void write(File destinationDir, ExtractedFileSet extracted, boolean withHashes) throws IOException {
+		Properties manifest = new Properties();
+		manifest.setProperty(relativePath(destinationDir, resolve(extracted.baseDir(), extracted.executable())),
+				entry(FileType.Executable, resolve(extracted.baseDir(), extracted.executable()), withHashes));
+		for (File library : extracted.libraryFiles()) {
+			manifest.setProperty(relativePath(destinationDir, resolve(extracted.baseDir(), library)),
+					entry(FileType.Library, resolve(extracted.baseDir(), library), withHashes));
+		}
+
+		File manifestFile = new File(destinationDir, MANIFEST);
+		File temp = new File(destinationDir, MANIFEST + "." + UUID.randomUUID() + ".tmp");
+		try (OutputStream out = new FileOutputStream(temp)) {
+			manifest.store(out, "path -> type,size,lastModified[,sha-256]");
+		}
+		java.nio.file.Files.move(temp.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		java.nio.file.Files.write(new File(destinationDir, COMPLETE).toPath(), new byte[0]);
+	}
+
+	private static String entry(FileType type, File file, boolean withHashes) throws IOException {
+		String entry = type.name() + SEPARATOR + file.length() + SEPARATOR + file.lastModified();
+		return withHashes
+				? entry + SEPARATOR + Checksum.sha256(file)
+				: entry;
+	}
+
+	/**
+	 * the files of the extraction if the marker is present and size and modification time of every file
+	 * match the manifest, a few stats only
+	 */
+	static Optional<ExtractedFileSet> complete(File destinationDir, boolean baseDirIsGenerated) {
+		return check(destinationDir, false).flatMap(manifest -> {
+			Builder builder = ExtractedFileSet.builder(destinationDir)
+					.baseDirIsGenerated(baseDirIsGenerated);
+			boolean hasExecutable = false;
+			for (String path : manifest.stringPropertyNames()) {
+				if (manifest.getProperty(path).startsWith(FileType.Executable.name() + SEPARATOR)) {
+					builder.executable(new File(path));
+					hasExecutable = true;
+				} else {
+					builder.addLibraryFiles(new File(path));
+				}
+			}
+			return hasExecutable ? Optional.of(builder.build()) : Optional.empty();
+		});
+	}
+
+	/**
+	 * like complete, but reads every file to compare its hash, if the manifest has one
+	 */
+	static boolean verify(File destinationDir) {
+		return check(destinationDir, true).isPresent();
+	}
+
+	/**
+	 * removes the marker first, so that an interrupted removal is not taken for a complete extraction
+	 */
+	static void invalidate(File destinationDir) throws IOException {
+		java.nio.file.Files.deleteIfExists(new File(destinationDir, COMPLETE).toPath());
+		java.nio.file.Files.deleteIfExists(new File(destinationDir, MANIFEST).toPath());
+	}
+
+	private static Optional<Properties> check(File destinationDir, boolean withHashes) {
+		if (!new File(destinationDir, COMPLETE).isFile()) {
+			return Optional.empty();
+		}
+		Optional<Properties> manifest = read(new File(destinationDir, MANIFEST));
+		if (!manifest.isPresent()) {
+			return Optional.empty();
+		}
+		for (String path : manifest.get().stringPropertyNames()) {
+			File file = new File(destinationDir, path);
+			String[] entry = manifest.get().getProperty(path).split(SEPARATOR);
+			try {
+				if (!file.isFile() || file.length() != Long.parseLong(entry[1]) || file.lastModified() != Long.parseLong(entry[2])) {
+					logger.info("{} does not match the extraction manifest", file);
+					return Optional.empty();
+				}
+				if (withHashes && entry.length > 3 && !entry[3].equals(Checksum.sha256(file))) {
+					logger.warn("{} does not match the hash in the extraction manifest", file);
+					return Optional.empty();
+				}
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException | IOException ex) {
+				logger.warn("could not check {} against the extraction manifest", file, ex);
+				return Optional.empty();
+			}
+		}
+		return manifest;
+	}
+
+	private static File resolve(File baseDir, File file) {
+		return file.isAbsolute() ? file : new File(baseDir, file.getPath());
+	}
+
+	private static String relativePath(File destinationDir, File file) {
+		Path relative = destinationDir.getAbsoluteFile().toPath().relativize(file.getAbsoluteFile().toPath());
+		List<String> names = new ArrayList<>();
+		relative.forEach(name -> names.add(name.toString()));
+		return String.join("/", names);
+	}
+
+	private static Optional<Properties> read(File manifestFile) {
+		if (!manifestFile.isFile()) {
+			return Optional.empty();
+		}
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(manifestFile)) {
+			properties.load(in);
+			return Optional.of(properties);
+		} catch (IOException iox) {
+			logger.warn("could not read {}", manifestFile, iox);
+			return Optional.empty();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+
+/**
+ * Downloader based on a shared java.net.http.HttpClient (http/2, keep alive), see META-INF/versions/11.
+ * This is the java 8 version, which uses a {@link UrlConnectionDownloader} for each download.
+ */
+public class HttpClientDownloader implements Downloader {
+
+	private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "http-client-downloader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final UrlConnectionDownloader delegate = new UrlConnectionDownloader();
+	private final Executor executor;
+
+	public HttpClientDownloader() {
+		this(DEFAULT_EXECUTOR);
+	}
+
+	public HttpClientDownloader(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public String getDownloadUrl(DownloadConfig runtime, Distribution distribution) {
+		return delegate.getDownloadUrl(runtime, distribution);
+	}
+
+	@Override
+	public File download(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		return delegate.download(downloadConfig, distribution);
+	}
+
+	@Override
+	public File download(DownloadConfig downloadConfig, Distribution distribution, ArchiveStreamConsumer consumer) throws IOException {
+		return delegate.download(downloadConfig, distribution, consumer);
+	}
+
+	public CompletableFuture<File> downloadAsync(DownloadConfig downloadConfig, Distribution distribution) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return delegate.download(downloadConfig, distribution);
+			} catch (IOException iox) {
+				throw new CompletionException(iox);
+			}
+		}, executor);
+	}
+}
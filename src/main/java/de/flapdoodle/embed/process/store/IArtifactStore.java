@@ -24,7 +24,12 @@
 package de.flapdoodle.embed.process.store;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.extract.ExtractedFileSet;
@@ -33,5 +38,50 @@ public interface IArtifactStore {
 
 	Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException;
 
+	/**
+	 * extractFileSet on executor, so that independent distributions can be prepared concurrently;
+	 * an IOException completes the future exceptionally
+	 */
+	default CompletableFuture<Optional<ExtractedFileSet>> extractFileSetAsync(Distribution distribution, Executor executor) {
+		CompletableFuture<Optional<ExtractedFileSet>> result = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				result.complete(extractFileSet(distribution));
+			} catch (IOException | RuntimeException | Error ex) {
+				result.completeExceptionally(ex);
+			}
+		});
+		return result;
+	}
+
 	void removeFileSet(Distribution distribution, ExtractedFileSet files);
+
+	/**
+	 * downloads (and extracts, if the store keeps extracted files) all distributions ahead of time,
+	 * the executor limits how many run in parallel, failures are reported, not thrown
+	 */
+	default PrefetchReport prefetch(Collection<Distribution> distributions, Executor executor) {
+		return Prefetch.run(distributions, executor, distribution -> {
+			Optional<ExtractedFileSet> files = extractFileSet(distribution);
+			if (files.isPresent()) {
+				removeFileSet(distribution, files.get());
+			}
+		});
+	}
+
+	/**
+	 * @see #prefetch(Collection, Executor)
+	 */
+	default PrefetchReport prefetch(Collection<Distribution> distributions, int parallelism) {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			return prefetch(distributions, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
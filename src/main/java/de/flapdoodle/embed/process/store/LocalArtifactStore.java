@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
 
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.StoreLayout;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.io.file.Files;
 
@@ -43,6 +44,13 @@ class LocalArtifactStore {
 	public static boolean store(DownloadConfig runtime, Distribution distribution, File download) {
 		File dir = createOrGetBaseDir(runtime);
 		String artifactFileName = runtime.getPackageResolver().packageFor(distribution).archivePath();
+		if (runtime.getStoreLayout() == StoreLayout.ContentAddressed) {
+			try {
+				return ContentAddressedStore.store(dir, artifactFileName, download).canRead();
+			} catch (IOException iox) {
+				throw new IllegalArgumentException("Could not store " + download + " as " + artifactFileName, iox);
+			}
+		}
 		File artifactFile = new File(dir, artifactFileName);
 		createOrCheckDir(artifactFile.getParentFile());
 		try {
@@ -56,6 +64,14 @@ class LocalArtifactStore {
 		return checkFile.exists() && checkFile.isFile() && checkFile.canRead();
 	}
 
+	/**
+	 * archivePath in the artifact store, with either layout
+	 */
+	static File artifactFile(DownloadConfig runtime, Distribution distribution) {
+		return new File(runtime.getArtifactStorePath().asFile(), runtime.getPackageResolver().packageFor(distribution).archivePath())
+				.getAbsoluteFile();
+	}
+
 	private static File createOrGetBaseDir(DownloadConfig runtime) {
 		File dir = runtime.getArtifactStorePath().asFile();
 		createOrCheckDir(dir);
@@ -74,7 +90,11 @@ class LocalArtifactStore {
 
 	public static File getArtifact(DownloadConfig runtime, Distribution distribution) {
 		File dir = createOrGetBaseDir(runtime);
-		File artifactFile = new File(dir, runtime.getPackageResolver().packageFor(distribution).archivePath());
+		String archivePath = runtime.getPackageResolver().packageFor(distribution).archivePath();
+		if (runtime.getStoreLayout() == StoreLayout.ContentAddressed) {
+			return ContentAddressedStore.blob(dir, archivePath).orElse(null);
+		}
+		File artifactFile = new File(dir, archivePath);
 		if ((artifactFile.exists()) && (artifactFile.isFile()))
 			return artifactFile;
 		return null;
@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.ProxyFactory;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
+import de.flapdoodle.embed.process.io.file.Files;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
+
+/**
+ * Downloads from the mirrors of DistributionDownloadPath.getPaths, fastest mirror first
+ * (observed time to first byte and throughput). If a download stalls longer than the given percentile
+ * of the time to first byte of its mirror, the next mirror is asked as well and the first complete
+ * download wins.
+ */
+public class MirrorDownloader implements Downloader {
+
+	private static final Logger logger = LoggerFactory.getLogger(MirrorDownloader.class);
+
+	private static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+	private static final long DEFAULT_HEDGE_DELAY = 2000;
+	private static final long MIN_HEDGE_DELAY = 100;
+	private static final int MIN_SAMPLES = 5;
+	private static final long POLL_INTERVAL = 50;
+	private static final int READ_COUNT_MULTIPLIER = 100;
+
+	private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "mirror-download");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final double hedgePercentile;
+	private final long hedgeDelay;
+	private final MirrorStatistics statistics;
+
+	public MirrorDownloader() {
+		this(DEFAULT_HEDGE_PERCENTILE, DEFAULT_HEDGE_DELAY);
+	}
+
+	/**
+	 * @param hedgePercentile percentile of the time to first byte of a mirror after which a stalled download is hedged
+	 * @param hedgeDelay stall time (ms) after which a download is hedged as long as there are not enough samples for a mirror
+	 */
+	public MirrorDownloader(double hedgePercentile, long hedgeDelay) {
+		this(hedgePercentile, hedgeDelay, MirrorStatistics.SHARED);
+	}
+
+	MirrorDownloader(double hedgePercentile, long hedgeDelay, MirrorStatistics statistics) {
+		if (hedgePercentile <= 0 || hedgePercentile > 1) throw new IllegalArgumentException("hedgePercentile not in (0,1]: " + hedgePercentile);
+		this.hedgePercentile = hedgePercentile;
+		this.hedgeDelay = hedgeDelay;
+		this.statistics = statistics;
+	}
+
+	@Override
+	public String getDownloadUrl(DownloadConfig runtime, Distribution distribution) {
+		return UrlConnectionDownloader.downloadUrl(runtime, distribution);
+	}
+
+	@Override
+	public File download(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		String archivePath = downloadConfig.getPackageResolver().packageFor(distribution).archivePath();
+		Deque<String> mirrors = new ArrayDeque<>(statistics.rank(downloadConfig.getDownloadPath().getPaths(distribution)));
+
+		String progressLabel = "Download " + distribution;
+		ProgressListener progress = downloadConfig.getProgressListener();
+		progress.start(progressLabel);
+		AtomicInteger lastPercent = new AtomicInteger(-1);
+
+		List<Attempt> running = new ArrayList<>();
+		IOException failures = new IOException("download of " + archivePath + " failed on every mirror");
+
+		DownloadLimiter limiter = DownloadLimiter.of(downloadConfig);
+		try (DownloadLimiter.Permit permit = limiter.acquire(progress, progressLabel)) {
+			while (true) {
+				if (running.isEmpty()) {
+					if (mirrors.isEmpty()) {
+						throw failures;
+					}
+					running.add(start(downloadConfig, distribution, mirrors.poll() + archivePath, limiter, progress, progressLabel, lastPercent));
+				}
+
+				Iterator<Attempt> iterator = running.iterator();
+				while (iterator.hasNext()) {
+					Attempt attempt = iterator.next();
+					if (attempt.result.isDone()) {
+						iterator.remove();
+						try {
+							File file = attempt.result.join();
+							progress.info(progressLabel, "downloaded from " + attempt.url);
+							progress.done(progressLabel);
+							return file;
+						} catch (CompletionException cx) {
+							progress.info(progressLabel, "download from " + attempt.url + " failed (" + cx.getCause().getMessage() + ")");
+							failures.addSuppressed(cx.getCause());
+						}
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				for (Attempt attempt : running) {
+					if (!mirrors.isEmpty() && !attempt.hedged && attempt.stalled(now)) {
+						attempt.hedged = true;
+						String next = mirrors.poll() + archivePath;
+						progress.info(progressLabel, attempt.url + " stalled for " + attempt.stallThreshold + "ms, also try " + next);
+						running.add(start(downloadConfig, distribution, next, limiter, progress, progressLabel, lastPercent));
+						break;
+					}
+				}
+
+				if (!running.isEmpty()) {
+					waitForAny(running);
+				}
+			}
+		} finally {
+			for (Attempt attempt : running) {
+				attempt.cancel();
+				// a loser may have completed in the same round or complete before it notices
+				attempt.result.thenAccept(Files::forceDelete);
+			}
+		}
+	}
+
+	private Attempt start(DownloadConfig downloadConfig, Distribution distribution, String url, DownloadLimiter limiter,
+			ProgressListener progress, String progressLabel, AtomicInteger lastPercent) throws IOException {
+		String mirror = url.substring(0, url.length() - downloadConfig.getPackageResolver().packageFor(distribution).archivePath().length());
+		long stallThreshold = statistics.timeToFirstBytePercentile(mirror, hedgePercentile, MIN_SAMPLES)
+				.map(it -> Math.max(MIN_HEDGE_DELAY, it))
+				.orElse(hedgeDelay);
+		File target = Files.createTempFile(PropertyOrPlatformTempDir.defaultInstance(), downloadConfig.getFileNaming()
+				.nameFor(downloadConfig.getDownloadPrefix(), "." + downloadConfig.getPackageResolver().packageFor(distribution).archiveType()));
+		Attempt attempt = new Attempt(mirror, url, target, stallThreshold);
+		CompletableFuture.runAsync(() -> attempt.run(downloadConfig, distribution, limiter, progress, progressLabel, lastPercent), EXECUTOR);
+		return attempt;
+	}
+
+	private static void waitForAny(List<Attempt> running) throws IOException {
+		CompletableFuture<?>[] results = running.stream()
+				.map(attempt -> attempt.result)
+				.toArray(CompletableFuture[]::new);
+		try {
+			CompletableFuture.anyOf(results).get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while downloading");
+		} catch (ExecutionException | TimeoutException ex) {
+			// checked on the next round
+		}
+	}
+
+	private class Attempt {
+
+		private final String mirror;
+		private final String url;
+		private final File target;
+		private final long stallThreshold;
+		private final long startedAt = System.currentTimeMillis();
+		private final CompletableFuture<File> result = new CompletableFuture<>();
+
+		private volatile long lastActivityAt = startedAt;
+		private volatile boolean cancelled = false;
+		private volatile URLConnection connection;
+		private boolean hedged = false;
+
+		Attempt(String mirror, String url, File target, long stallThreshold) {
+			this.mirror = mirror;
+			this.url = url;
+			this.target = target;
+			this.stallThreshold = stallThreshold;
+		}
+
+		boolean stalled(long now) {
+			return now - lastActivityAt > stallThreshold;
+		}
+
+		void cancel() {
+			cancelled = true;
+			URLConnection current = connection;
+			if (current instanceof HttpURLConnection) {
+				((HttpURLConnection) current).disconnect();
+			}
+		}
+
+		void run(DownloadConfig downloadConfig, Distribution distribution, DownloadLimiter limiter, ProgressListener progress,
+				String progressLabel, AtomicInteger lastPercent) {
+			try {
+				// from this mirror, the primary download path may be the one which is down
+				Optional<String> expectedSha256 = Checksum.expectedSha256(downloadConfig, distribution, mirror);
+				File file = download(downloadConfig, expectedSha256, limiter, progress, progressLabel, lastPercent);
+				result.complete(expectedSha256.isPresent() ? Checksum.verified(file, expectedSha256.get()) : file);
+			} catch (IOException | RuntimeException ex) {
+				if (!cancelled) {
+					// a hedge which lost is no failure of its mirror
+					if (firstByteMissing()) {
+						// a lower bound, but it keeps a mirror which never answers from looking fast
+						statistics.timeToFirstByte(mirror, System.currentTimeMillis() - startedAt);
+					}
+					statistics.failed(mirror);
+				}
+				Files.forceDelete(target);
+				result.completeExceptionally(ex);
+			}
+		}
+
+		private boolean firstByteMissing() {
+			return lastActivityAt == startedAt;
+		}
+
+		private File download(DownloadConfig downloadConfig, Optional<String> expectedSha256, DownloadLimiter limiter,
+				ProgressListener progress, String progressLabel, AtomicInteger lastPercent) throws IOException {
+			Optional<Proxy> proxy = downloadConfig.proxyFactory().map(ProxyFactory::createProxy);
+			connection = UrlConnectionDownloader.openConnection(downloadConfig, new URL(url), proxy);
+			if (cancelled) {
+				throw new IOException("cancelled");
+			}
+			if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Could not download " + url + ", status " + ((HttpURLConnection) connection).getResponseCode());
+			}
+			long contentLength = connection.getContentLengthLong();
+			Optional<MessageDigest> digest = expectedSha256.map(__ -> Checksum.sha256());
+
+			try (InputStream in = limiter.throttled(connection.getInputStream());
+					FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				InputStream source = digest.isPresent() ? new DigestInputStream(in, digest.get()) : in;
+				long transferred = TransferMode.STREAM.transfer(source, channel, bytes -> {
+					if (cancelled) {
+						throw new IOException("cancelled");
+					}
+					long now = System.currentTimeMillis();
+					if (firstByteMissing()) {
+						statistics.timeToFirstByte(mirror, now - startedAt);
+					}
+					lastActivityAt = now;
+					if (contentLength > 0) {
+						int percent = (int) (bytes * READ_COUNT_MULTIPLIER / Math.max(contentLength, bytes));
+						if (lastPercent.getAndAccumulate(percent, Math::max) < percent) {
+							progress.progress(progressLabel, percent);
+						}
+					}
+				});
+				if (contentLength != -1 && transferred < contentLength) {
+					throw new IOException("download of " + url + " ended after " + transferred + " of " + contentLength + " bytes");
+				}
+				if (digest.isPresent()) {
+					Checksum.verify(url, expectedSha256.get(), digest.get());
+				}
+				channel.force(false);
+				statistics.throughput(mirror, transferred, System.currentTimeMillis() - startedAt);
+				if (cancelled) {
+					throw new IOException("cancelled");
+				}
+				return target;
+			}
+		}
+	}
+}
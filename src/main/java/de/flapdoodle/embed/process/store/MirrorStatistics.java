@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * not part of public api
+ *
+ * observed time to first byte and throughput per mirror
+ */
+class MirrorStatistics {
+
+	private static final int SAMPLES = 32;
+	private static final double WEIGHT = 0.3;
+	/**
+	 * size used to weigh time to first byte against throughput
+	 */
+	private static final long REFERENCE_SIZE = 8 * 1024 * 1024;
+
+	static final MirrorStatistics SHARED = new MirrorStatistics();
+
+	private final ConcurrentMap<String, Mirror> mirrors = new ConcurrentHashMap<>();
+
+	private Mirror mirror(String mirror) {
+		return mirrors.computeIfAbsent(mirror, __ -> new Mirror());
+	}
+
+	void timeToFirstByte(String mirror, long millis) {
+		mirror(mirror).timeToFirstByte(millis);
+	}
+
+	/**
+	 * bytes per millisecond of a finished download
+	 */
+	void throughput(String mirror, long bytes, long millis) {
+		mirror(mirror).throughput((double) bytes / Math.max(1, millis));
+	}
+
+	/**
+	 * download failed, was cancelled or stalled, ranks the mirror last until it delivers again
+	 */
+	void failed(String mirror) {
+		mirror(mirror).throughput(0);
+	}
+
+	/**
+	 * percentile of the recent time to first byte samples, if there are enough of them
+	 */
+	Optional<Long> timeToFirstBytePercentile(String mirror, double percentile, int minSamples) {
+		return mirror(mirror).percentile(percentile, minSamples);
+	}
+
+	/**
+	 * fastest mirror first, then mirrors without statistics, then mirrors which failed last,
+	 * each group in the given order
+	 */
+	List<String> rank(List<String> candidates) {
+		List<String> ranked = new ArrayList<>(candidates);
+		ranked.sort(Comparator.comparingDouble(mirror -> mirror(mirror).expectedMillis()));
+		return ranked;
+	}
+
+	static class Mirror {
+
+		private final long[] samples = new long[SAMPLES];
+		private int sampleCount = 0;
+		private double timeToFirstByte = -1;
+		private double throughput = -1;
+
+		synchronized void timeToFirstByte(long millis) {
+			samples[sampleCount % SAMPLES] = millis;
+			sampleCount++;
+			timeToFirstByte = timeToFirstByte < 0 ? millis : WEIGHT * millis + (1 - WEIGHT) * timeToFirstByte;
+		}
+
+		synchronized void throughput(double bytesPerMilli) {
+			// after a failure only a new measurement counts
+			throughput = throughput <= 0 ? bytesPerMilli : WEIGHT * bytesPerMilli + (1 - WEIGHT) * throughput;
+		}
+
+		synchronized Optional<Long> percentile(double percentile, int minSamples) {
+			int count = Math.min(sampleCount, SAMPLES);
+			if (count < minSamples) {
+				return Optional.empty();
+			}
+			long[] sorted = Arrays.copyOf(samples, count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile * count) - 1;
+			return Optional.of(sorted[Math.max(0, Math.min(count - 1, index))]);
+		}
+
+		synchronized double expectedMillis() {
+			if (throughput == 0) {
+				return Double.MAX_VALUE;
+			}
+			if (timeToFirstByte < 0) {
+				return Double.MAX_VALUE / 2;
+			}
+			return timeToFirstByte + (throughput > 0 ? REFERENCE_SIZE / throughput : 0);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Properties;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
+import de.flapdoodle.embed.process.io.file.Files;
+
+/**
+ * not part of public api
+ *
+ * a partially downloaded archive (archive.part) in the artifact store and a journal
+ * (archive.part.properties) with the validators of the server response and the bytes received,
+ * so that a failed download can be resumed instead of started over
+ */
+class PartialDownload implements Closeable {
+
+	static final String PART_SUFFIX = ".part";
+	static final String JOURNAL_SUFFIX = ".part.properties";
+
+	private static final String URL = "url";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String LENGTH = "length";
+	private static final String RECEIVED = "received";
+
+	private final File part;
+	private final Optional<File> journalFile;
+	private final FileChannel channel;
+	private final Optional<FileLock> lock;
+	private final Properties journal;
+
+	private PartialDownload(File part, Optional<File> journalFile, FileChannel channel, Optional<FileLock> lock) throws IOException {
+		this.part = part;
+		this.journalFile = journalFile;
+		this.channel = channel;
+		this.lock = lock;
+		this.journal = new Properties();
+		if (journalFile.isPresent() && journalFile.get().isFile()) {
+			try (InputStream in = new FileInputStream(journalFile.get())) {
+				journal.load(in);
+			}
+		}
+	}
+
+	/**
+	 * uses archive.part in the artifact store, if no one else is downloading the same archive,
+	 * a new temp file otherwise
+	 */
+	static PartialDownload of(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		File dir = downloadConfig.getArtifactStorePath().asFile();
+		String archivePath = downloadConfig.getPackageResolver().packageFor(distribution).archivePath();
+		File part = new File(dir, archivePath + PART_SUFFIX);
+		Files.createOrCheckDir(part.getParentFile());
+
+		FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+		FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException ox) {
+			lock = null;
+		}
+		if (lock == null) {
+			channel.close();
+			return temp(downloadConfig, distribution);
+		}
+		return new PartialDownload(part, Optional.of(new File(dir, archivePath + JOURNAL_SUFFIX)), channel, Optional.of(lock));
+	}
+
+	private static PartialDownload temp(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		File temp = Files.createTempFile(PropertyOrPlatformTempDir.defaultInstance(), downloadConfig.getFileNaming()
+				.nameFor(downloadConfig.getDownloadPrefix(), "." + downloadConfig.getPackageResolver().packageFor(distribution).archiveType()));
+		FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+		return new PartialDownload(temp, Optional.empty(), channel, Optional.empty());
+	}
+
+	File file() {
+		return part;
+	}
+
+	FileChannel channel() {
+		return channel;
+	}
+
+	/**
+	 * bytes we can keep, if the server still serves the same content for this url
+	 */
+	long resumeOffset(String url) throws IOException {
+		if (!url.equals(journal.getProperty(URL)) || !validator().isPresent()) {
+			return 0;
+		}
+		long received = Long.parseLong(journal.getProperty(RECEIVED, "0"));
+		return Math.min(received, channel.size());
+	}
+
+	Optional<Long> length() {
+		return Optional.ofNullable(journal.getProperty(LENGTH)).map(Long::parseLong);
+	}
+
+	/**
+	 * ETag if present, Last-Modified otherwise, for the If-Range header
+	 */
+	Optional<String> validator() {
+		String etag = journal.getProperty(ETAG);
+		return Optional.ofNullable(etag != null ? etag : journal.getProperty(LAST_MODIFIED));
+	}
+
+	/**
+	 * truncates the partial file to offset and records the validators of the current response
+	 */
+	void startAt(long offset, String url, Optional<String> etag, Optional<String> lastModified, long length) throws IOException {
+		channel.truncate(offset);
+		channel.position(offset);
+		journal.clear();
+		journal.setProperty(URL, url);
+		etag.ifPresent(it -> journal.setProperty(ETAG, it));
+		lastModified.ifPresent(it -> journal.setProperty(LAST_MODIFIED, it));
+		if (length >= 0) {
+			journal.setProperty(LENGTH, "" + length);
+		}
+		received(offset);
+	}
+
+	void received(long bytes) throws IOException {
+		if (journalFile.isPresent()) {
+			journal.setProperty(RECEIVED, "" + bytes);
+			try (OutputStream out = new FileOutputStream(journalFile.get())) {
+				journal.store(out, "partial download of " + part.getName());
+			}
+		}
+	}
+
+	/**
+	 * content is not usable, drops all received bytes and the journal
+	 */
+	void discard() throws IOException {
+		channel.truncate(0);
+		channel.position(0);
+		journal.clear();
+		if (journalFile.isPresent()) {
+			java.nio.file.Files.deleteIfExists(journalFile.get().toPath());
+		}
+	}
+
+	/**
+	 * download is complete, journal is removed, lock released
+	 */
+	File complete() throws IOException {
+		channel.force(false);
+		close();
+		if (journalFile.isPresent()) {
+			java.nio.file.Files.deleteIfExists(journalFile.get().toPath());
+		}
+		return part;
+	}
+
+	/**
+	 * gives up, a temp file is deleted, a partial file in the artifact store is kept for the next try
+	 * as long as there is something to resume
+	 */
+	void abort() throws IOException {
+		boolean empty = channel.isOpen() && channel.size() == 0;
+		close();
+		if (!journalFile.isPresent() || empty) {
+			Files.forceDelete(part);
+			if (journalFile.isPresent()) {
+				java.nio.file.Files.deleteIfExists(journalFile.get().toPath());
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel.isOpen()) {
+			if (lock.isPresent()) {
+				lock.get().release();
+			}
+			channel.close();
+		}
+	}
+}
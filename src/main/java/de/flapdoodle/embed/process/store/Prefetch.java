@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.distribution.Distribution;
+
+/**
+ * not part of public api
+ */
+class Prefetch {
+
+	private static final Logger logger = LoggerFactory.getLogger(Prefetch.class);
+
+	private Prefetch() {
+		// no instance
+	}
+
+	/**
+	 * runs task for every distribution on executor, waits for all of them
+	 */
+	static PrefetchReport run(Collection<Distribution> distributions, Executor executor, Task task) {
+		long startedAt = System.currentTimeMillis();
+		List<CompletableFuture<PrefetchReport.Result>> results = new ArrayList<>();
+		for (Distribution distribution : distributions) {
+			results.add(CompletableFuture.supplyAsync(() -> run(distribution, task), executor));
+		}
+		ImmutablePrefetchReport.Builder report = PrefetchReport.builder();
+		for (CompletableFuture<PrefetchReport.Result> result : results) {
+			report.addResults(result.join());
+		}
+		return report
+				.durationMillis(System.currentTimeMillis() - startedAt)
+				.build();
+	}
+
+	private static PrefetchReport.Result run(Distribution distribution, Task task) {
+		long startedAt = System.currentTimeMillis();
+		Optional<Throwable> failure;
+		try {
+			task.prefetch(distribution);
+			failure = Optional.empty();
+		} catch (IOException | RuntimeException ex) {
+			logger.warn("prefetch of {} failed", distribution, ex);
+			failure = Optional.of(ex);
+		}
+		return ImmutableResult.of(distribution, System.currentTimeMillis() - startedAt, failure);
+	}
+
+	@FunctionalInterface
+	interface Task {
+		void prefetch(Distribution distribution) throws IOException;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.immutables.value.Value;
+import org.immutables.value.Value.Parameter;
+
+import de.flapdoodle.embed.process.distribution.Distribution;
+
+/**
+ * outcome of IArtifactStore.prefetch, one result per distribution in the order given
+ */
+@Value.Immutable
+public interface PrefetchReport {
+
+	List<Result> results();
+
+	/**
+	 * wall clock time of the whole prefetch (ms)
+	 */
+	long durationMillis();
+
+	default List<Result> failures() {
+		return results().stream()
+				.filter(result -> result.failure().isPresent())
+				.collect(Collectors.toList());
+	}
+
+	default boolean isSuccess() {
+		return failures().isEmpty();
+	}
+
+	@Value.Immutable
+	interface Result {
+		@Parameter
+		Distribution distribution();
+
+		/**
+		 * time spent on this distribution, without waiting for a free thread (ms)
+		 */
+		@Parameter
+		long durationMillis();
+
+		@Parameter
+		Optional<Throwable> failure();
+	}
+
+	static ImmutablePrefetchReport.Builder builder() {
+		return ImmutablePrefetchReport.builder();
+	}
+}
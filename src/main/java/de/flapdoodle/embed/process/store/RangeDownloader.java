@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.ImmutableDownloadConfig;
+import de.flapdoodle.embed.process.config.store.ProxyFactory;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
+import de.flapdoodle.embed.process.io.file.Files;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
+
+/**
+ * Downloads an archive with more than one connection if the server supports byte ranges,
+ * falls back to a single stream download if not
+ */
+public class RangeDownloader implements Downloader {
+
+	private static final Logger logger = LoggerFactory.getLogger(RangeDownloader.class);
+
+	private static final int DEFAULT_CONNECTIONS = 4;
+	private static final long DEFAULT_MIN_PART_SIZE = 4 * 1024 * 1024;
+	private static final int BUFFER_LENGTH = 1024 * 8 * 8;
+	private static final int READ_COUNT_MULTIPLIER = 100;
+
+	private final int connections;
+	private final long minPartSize;
+	private final Downloader fallback;
+
+	public RangeDownloader() {
+		this(DEFAULT_CONNECTIONS);
+	}
+
+	public RangeDownloader(int connections) {
+		this(connections, new UrlConnectionDownloader());
+	}
+
+	public RangeDownloader(int connections, Downloader fallback) {
+		this(connections, DEFAULT_MIN_PART_SIZE, fallback);
+	}
+
+	RangeDownloader(int connections, long minPartSize, Downloader fallback) {
+		if (connections < 1) throw new IllegalArgumentException("connections < 1: " + connections);
+		this.connections = connections;
+		this.minPartSize = minPartSize;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public String getDownloadUrl(DownloadConfig runtime, Distribution distribution) {
+		return UrlConnectionDownloader.downloadUrl(runtime, distribution);
+	}
+
+	@Override
+	public File download(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		URL url = new URL(UrlConnectionDownloader.downloadUrl(downloadConfig, distribution));
+		Optional<Proxy> proxy = downloadConfig.proxyFactory().map(ProxyFactory::createProxy);
+
+		Optional<RangeSupport> rangeSupport = probe(downloadConfig, url, proxy);
+		if (rangeSupport.isPresent()) {
+			int parts = parts(rangeSupport.get().contentLength());
+			if (parts > 1) {
+				String progressLabel = "Download " + distribution;
+				ProgressListener progress = downloadConfig.getProgressListener();
+				progress.start(progressLabel);
+				try {
+					return download(downloadConfig, distribution, url, proxy, rangeSupport.get(), parts, progress, progressLabel);
+				} catch (Checksum.ChecksumMismatchException cmx) {
+					throw cmx;
+				} catch (IOException iox) {
+					logger.warn("ranged download of {} failed, fall back to single stream", url, iox);
+					progress.info(progressLabel, "ranged download failed, fall back to single stream");
+					// start and done stay with this download
+					return fallback.download(ImmutableDownloadConfig.copyOf(downloadConfig)
+							.withProgressListener(new StartedProgress(progress)), distribution);
+				} finally {
+					progress.done(progressLabel);
+				}
+			}
+		}
+		return fallback.download(downloadConfig, distribution);
+	}
+
+	private int parts(long contentLength) {
+		long maxParts = contentLength / minPartSize;
+		return (int) Math.max(1, Math.min(connections, maxParts));
+	}
+
+	private File download(DownloadConfig downloadConfig, Distribution distribution, URL url, Optional<Proxy> proxy,
+			RangeSupport rangeSupport, int parts, ProgressListener progress, String progressLabel) throws IOException {
+
+		long length = rangeSupport.contentLength();
+		progress.info(progressLabel, "DownloadSize: " + length + " (" + parts + " connections)");
+
+		Optional<String> expectedSha256 = Checksum.expectedSha256(downloadConfig, distribution);
+
+		File ret = Files.createTempFile(PropertyOrPlatformTempDir.defaultInstance(), downloadConfig.getFileNaming()
+				.nameFor(downloadConfig.getDownloadPrefix(), "." + downloadConfig.getPackageResolver().packageFor(distribution).archiveType()));
+
+		long downloadStartedAt = System.currentTimeMillis();
+		CombinedProgress combinedProgress = new CombinedProgress(progress, progressLabel, length);
+		DownloadLimiter limiter = DownloadLimiter.of(downloadConfig);
+
+		ExecutorService executor = Executors.newFixedThreadPool(parts, runnable -> {
+			Thread thread = new Thread(runnable, "download-" + distribution);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		boolean success = false;
+		try (RandomAccessFile file = new RandomAccessFile(ret, "rw")) {
+			file.setLength(length);
+			FileChannel channel = file.getChannel();
+
+			long partSize = length / parts;
+			List<Future<Void>> results = new ArrayList<>();
+			for (int i = 0; i < parts; i++) {
+				long start = i * partSize;
+				long end = i == parts - 1 ? length - 1 : start + partSize - 1;
+				results.add(executor.submit(() -> {
+					// every connection counts against maxConcurrentDownloads
+					try (DownloadLimiter.Permit permit = limiter.acquire(progress, progressLabel)) {
+						downloadRange(downloadConfig, url, proxy, rangeSupport, start, end, channel, combinedProgress, limiter);
+					}
+					return null;
+				}));
+			}
+
+			for (Future<Void> result : results) {
+				waitFor(result);
+			}
+			channel.force(false);
+
+			if (expectedSha256.isPresent()) {
+				// parts arrive out of order, so the checksum needs a second pass
+				MessageDigest digest = Checksum.sha256();
+				Checksum.update(digest, channel, length);
+				Checksum.verify(url.toString(), expectedSha256.get(), digest);
+			}
+			success = true;
+		} finally {
+			executor.shutdownNow();
+			if (!success) {
+				Files.forceDelete(ret);
+			}
+		}
+
+		progress.info(progressLabel, "downloaded with " + UrlConnectionDownloader.downloadSpeed(downloadStartedAt, length));
+		return expectedSha256.isPresent() ? Checksum.verified(ret, expectedSha256.get()) : ret;
+	}
+
+	private static void waitFor(Future<Void> result) throws IOException {
+		try {
+			result.get();
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", ix);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+	}
+
+	private static void downloadRange(DownloadConfig downloadConfig, URL url, Optional<Proxy> proxy, RangeSupport rangeSupport,
+			long start, long end, FileChannel channel, CombinedProgress progress, DownloadLimiter limiter) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) UrlConnectionDownloader.openConnection(downloadConfig, url, proxy);
+		connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+		rangeSupport.validator().ifPresent(validator -> connection.setRequestProperty("If-Range", validator));
+
+		try {
+			if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+				throw new IOException("expected partial content for range " + start + "-" + end + " of " + url + ", got "
+						+ connection.getResponseCode());
+			}
+
+			try (InputStream in = new BufferedInputStream(limiter.throttled(connection.getInputStream()))) {
+				byte[] buf = new byte[BUFFER_LENGTH];
+				long position = start;
+				long left = end - start + 1;
+				int read;
+				while (left > 0 && (read = in.read(buf, 0, (int) Math.min(buf.length, left))) != -1) {
+					ByteBuffer buffer = ByteBuffer.wrap(buf, 0, read);
+					while (buffer.hasRemaining()) {
+						position += channel.write(buffer, position);
+					}
+					left -= read;
+					progress.add(read);
+				}
+				if (left > 0) {
+					throw new IOException("range " + start + "-" + end + " of " + url + " ended " + left + " bytes early");
+				}
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static Optional<RangeSupport> probe(DownloadConfig downloadConfig, URL url, Optional<Proxy> proxy) {
+		try {
+			URLConnection openConnection = UrlConnectionDownloader.openConnection(downloadConfig, url, proxy);
+			if (!(openConnection instanceof HttpURLConnection)) {
+				return Optional.empty();
+			}
+			HttpURLConnection connection = (HttpURLConnection) openConnection;
+			connection.setRequestMethod("HEAD");
+			try {
+				long contentLength = connection.getContentLengthLong();
+				String acceptRanges = connection.getHeaderField("Accept-Ranges");
+				if (connection.getResponseCode() == HttpURLConnection.HTTP_OK
+						&& contentLength > 0
+						&& acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("bytes")) {
+					String etag = connection.getHeaderField("ETag");
+					String lastModified = connection.getHeaderField("Last-Modified");
+					return Optional.of(new RangeSupport(contentLength, Optional.ofNullable(etag != null ? etag : lastModified)));
+				}
+				return Optional.empty();
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException iox) {
+			logger.debug("probe for range support of {} failed", url, iox);
+			return Optional.empty();
+		}
+	}
+
+	static class RangeSupport {
+
+		private final long _contentLength;
+		private final Optional<String> _validator;
+
+		RangeSupport(long contentLength, Optional<String> validator) {
+			_contentLength = contentLength;
+			_validator = validator;
+		}
+
+		long contentLength() {
+			return _contentLength;
+		}
+
+		Optional<String> validator() {
+			return _validator;
+		}
+	}
+
+	/**
+	 * the fallback continues a started download, start and done are left to the caller
+	 */
+	static class StartedProgress implements ProgressListener {
+
+		private final ProgressListener _progress;
+
+		StartedProgress(ProgressListener progress) {
+			_progress = progress;
+		}
+
+		@Override
+		public void progress(String label, int percent) {
+			_progress.progress(label, percent);
+		}
+
+		@Override
+		public void done(String label) {
+		}
+
+		@Override
+		public void start(String label) {
+		}
+
+		@Override
+		public void info(String label, String message) {
+			_progress.info(label, message);
+		}
+	}
+
+	static class CombinedProgress {
+
+		private final ProgressListener _progress;
+		private final String _label;
+		private final long _length;
+		private final AtomicLong _readCount = new AtomicLong();
+		private final AtomicInteger _lastPercent = new AtomicInteger(-1);
+
+		CombinedProgress(ProgressListener progress, String label, long length) {
+			_progress = progress;
+			_label = label;
+			_length = length;
+		}
+
+		void add(int read) {
+			int percent = (int) (_readCount.addAndGet(read) * READ_COUNT_MULTIPLIER / _length);
+			if (percent > _lastPercent.get()) {
+				synchronized (this) {
+					if (percent > _lastPercent.get()) {
+						_lastPercent.set(percent);
+						_progress.progress(_label, percent);
+					}
+				}
+			}
+		}
+	}
+}
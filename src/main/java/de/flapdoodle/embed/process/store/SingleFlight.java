@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * not part of public api
+ *
+ * concurrent calls with the same key are coalesced: the first caller does the work,
+ * everyone else arriving before it is done waits for its result
+ */
+class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	V run(K key, Call<V> call) throws IOException {
+		CompletableFuture<V> result = new CompletableFuture<>();
+		CompletableFuture<V> running = inFlight.putIfAbsent(key, result);
+		if (running != null) {
+			return await(running);
+		}
+
+		try {
+			V value = call.call();
+			result.complete(value);
+			return value;
+		} catch (IOException | RuntimeException | Error ex) {
+			result.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			inFlight.remove(key, result);
+		}
+	}
+
+	static <V> V await(CompletableFuture<V> running) throws IOException {
+		try {
+			return running.get();
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for concurrent call");
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	@FunctionalInterface
+	interface Call<V> {
+		V call() throws IOException;
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * not part of public api
+ *
+ * last access and leases of archives and extracted trees, so the StoreJanitor evicts the least
+ * recently used entries and leaves those in use alone; the last access is the modification time
+ * of a sidecar file next to the entry, which is visible to other processes sharing the store and
+ * leaves the entry itself (and its index, or the files it is hardlinked with) untouched
+ */
+class StoreAccess {
+
+	private static final Logger logger = LoggerFactory.getLogger(StoreAccess.class);
+
+	static final String ACCESS_SUFFIX = ".access";
+
+	private static final int EVICTING = -1;
+
+	/**
+	 * number of leases, or EVICTING while the entry is deleted
+	 */
+	private static final ConcurrentMap<File, Integer> LEASES = new ConcurrentHashMap<>();
+
+	private static final Object EVICTION_DONE = new Object();
+
+	private StoreAccess() {
+		// no instance
+	}
+
+	/**
+	 * marks entry as accessed and in use until the lease is closed, waits for a running eviction
+	 */
+	static Lease lease(File entry) {
+		File key = entry.getAbsoluteFile();
+		while (LEASES.merge(key, 1, (count, one) -> count == EVICTING ? EVICTING : count + one) == EVICTING) {
+			awaitEviction(key);
+		}
+		touch(key);
+		return () -> LEASES.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+	}
+
+	static boolean isLeased(File entry) {
+		return LEASES.containsKey(entry.getAbsoluteFile());
+	}
+
+	/**
+	 * runs evict if entry is not leased, a lease on entry waits for a running eviction
+	 */
+	static boolean evictUnlessLeased(File entry, Eviction evict) throws IOException {
+		File key = entry.getAbsoluteFile();
+		if (LEASES.putIfAbsent(key, EVICTING) != null) {
+			return false;
+		}
+		try {
+			evict.evict();
+			java.nio.file.Files.deleteIfExists(accessFileFor(key).toPath());
+			return true;
+		} finally {
+			LEASES.remove(key, EVICTING);
+			synchronized (EVICTION_DONE) {
+				EVICTION_DONE.notifyAll();
+			}
+		}
+	}
+
+	private static void awaitEviction(File key) {
+		boolean interrupted = false;
+		synchronized (EVICTION_DONE) {
+			while (Integer.valueOf(EVICTING).equals(LEASES.get(key))) {
+				try {
+					EVICTION_DONE.wait();
+				} catch (InterruptedException ix) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void touch(File entry) {
+		File accessFile = accessFileFor(entry);
+		try {
+			if (!accessFile.createNewFile() && !accessFile.setLastModified(System.currentTimeMillis())) {
+				logger.debug("could not touch {}", accessFile);
+			}
+		} catch (IOException iox) {
+			// e.g. next to a read only entry, the janitor uses the modification time of the entry then
+			logger.debug("could not create {}", accessFile, iox);
+		}
+	}
+
+	static long lastAccess(File entry) {
+		return Math.max(entry.lastModified(), accessFileFor(entry).lastModified());
+	}
+
+	static File accessFileFor(File entry) {
+		return new File(entry.getParentFile(), entry.getName() + ACCESS_SUFFIX);
+	}
+
+	interface Eviction {
+		void evict() throws IOException;
+	}
+
+	interface Lease extends Closeable {
+		@Override
+		void close();
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.extract.AbstractTarExtractor;
+import de.flapdoodle.embed.process.io.directories.Directory;
+import de.flapdoodle.embed.process.io.file.Files;
+
+/**
+ * keeps artifact stores and extraction directories within a size and age budget by deleting
+ * the least recently used archives and extracted trees; entries in use by this process
+ * (see ArtifactStore, ExtractedArtifactStore) or locked by another process are left alone
+ */
+@Value.Immutable
+public abstract class StoreJanitor {
+
+	private static final Logger logger = LoggerFactory.getLogger(StoreJanitor.class);
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "store-janitor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * artifact store directories (DownloadConfig.getArtifactStorePath()), one entry per archive
+	 */
+	public abstract List<Directory> archives();
+
+	/**
+	 * extraction directories of an ExtractedArtifactStore, one entry per distribution
+	 */
+	public abstract List<Directory> extractions();
+
+	/**
+	 * all entries together
+	 */
+	public abstract Optional<Long> maxBytes();
+
+	/**
+	 * entries not accessed within maxAge (ms) are deleted
+	 */
+	public abstract Optional<Long> maxAge();
+
+	@Value.Check
+	protected void check() {
+		if (maxBytes().isPresent() && maxBytes().get() < 0) {
+			throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes().get());
+		}
+		if (maxAge().isPresent() && maxAge().get() < 0) {
+			throw new IllegalArgumentException("maxAge must not be negative: " + maxAge().get());
+		}
+	}
+
+	public JanitorReport run() throws IOException {
+		long now = System.currentTimeMillis();
+		List<Entry> entries = new ArrayList<>();
+		for (Directory archives : archives()) {
+			entries.addAll(archiveEntries(archives.asFile()));
+		}
+		for (Directory extractions : extractions()) {
+			entries.addAll(extractionEntries(extractions.asFile()));
+		}
+		entries.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+
+		long remaining = entries.stream().mapToLong(entry -> entry.size).sum();
+		long freed = 0;
+		ImmutableJanitorReport.Builder report = JanitorReport.builder();
+		for (Entry entry : entries) {
+			boolean expired = maxAge().isPresent() && now - entry.lastAccess > maxAge().get();
+			boolean overBudget = maxBytes().isPresent() && remaining > maxBytes().get();
+			if (!expired && !overBudget) {
+				// everything after this entry was accessed more recently
+				break;
+			}
+			if (evict(entry)) {
+				remaining -= entry.size;
+				freed += entry.size;
+				report.addEvicted(entry.file);
+			}
+		}
+		return report
+				.freedBytes(freed)
+				.remainingBytes(remaining)
+				.build();
+	}
+
+	/**
+	 * runs the janitor every period (ms) on a shared daemon thread until the returned future is cancelled
+	 */
+	public ScheduledFuture<?> schedule(long period) {
+		return SCHEDULER.scheduleWithFixedDelay(() -> {
+			try {
+				JanitorReport report = run();
+				if (!report.evicted().isEmpty()) {
+					logger.info("evicted {} ({} bytes)", report.evicted(), report.freedBytes());
+				}
+			} catch (IOException | RuntimeException ex) {
+				logger.warn("store janitor failed", ex);
+			}
+		}, 0, period, TimeUnit.MILLISECONDS);
+	}
+
+	private static boolean evict(Entry entry) {
+		try {
+			Optional<StoreLock> lock = StoreLock.tryLock(entry.file);
+			if (!lock.isPresent()) {
+				logger.debug("{} is locked, keep it", entry.file);
+				return false;
+			}
+			try (StoreLock ignored = lock.get()) {
+				boolean evicted = StoreAccess.evictUnlessLeased(entry.file, entry.eviction);
+				if (evicted) {
+					lock.get().deleteLockFile();
+				} else {
+					logger.debug("{} is in use, keep it", entry.file);
+				}
+				return evicted;
+			}
+		} catch (IOException iox) {
+			logger.warn("could not evict {}", entry.file, iox);
+			return false;
+		}
+	}
+
+	private static List<Entry> archiveEntries(File storeDir) throws IOException {
+		if (!storeDir.isDirectory()) {
+			return new ArrayList<>();
+		}
+		boolean contentAddressed = ContentAddressedStore.isContentAddressed(storeDir);
+		Path blobs = new File(storeDir, ContentAddressedStore.BLOB_DIR).toPath();
+		try (Stream<Path> files = java.nio.file.Files.walk(storeDir.toPath())) {
+			return files
+					.filter(path -> !path.startsWith(blobs))
+					.filter(java.nio.file.Files::isRegularFile)
+					.filter(path -> isArchive(path.getFileName().toString()))
+					.map(path -> {
+						File file = path.toFile();
+						if (contentAddressed) {
+							String archivePath = archivePath(storeDir.toPath().relativize(path));
+							return new Entry(file, file.length(), () -> {
+								ContentAddressedStore.evict(storeDir, archivePath);
+								deleteIndexOf(path);
+							});
+						}
+						return new Entry(file, file.length(), () -> {
+							java.nio.file.Files.deleteIfExists(path);
+							deleteIndexOf(path);
+						});
+					})
+					.collect(Collectors.toList());
+		} catch (UncheckedIOException uix) {
+			throw uix.getCause();
+		}
+	}
+
+	private static boolean isArchive(String name) {
+		return !name.endsWith(StoreLock.LOCK_SUFFIX)
+				&& !name.endsWith(StoreAccess.ACCESS_SUFFIX)
+				&& !name.endsWith(PartialDownload.PART_SUFFIX)
+				&& !name.endsWith(PartialDownload.JOURNAL_SUFFIX)
+				&& !name.contains(TieredArtifactStore.PROMOTE_INFIX)
+				&& !name.endsWith(AbstractTarExtractor.INDEX_SUFFIX)
+				&& !name.contains(AbstractTarExtractor.INDEX_SUFFIX + ".");
+	}
+
+	private static void deleteIndexOf(Path archive) throws IOException {
+		java.nio.file.Files.deleteIfExists(archive.resolveSibling(archive.getFileName() + AbstractTarExtractor.INDEX_SUFFIX));
+	}
+
+	private static String archivePath(Path relative) {
+		List<String> names = new ArrayList<>();
+		relative.forEach(name -> names.add(name.toString()));
+		return String.join("/", names);
+	}
+
+	private static List<Entry> extractionEntries(File extractionDir) throws IOException {
+		File[] trees = extractionDir.listFiles(File::isDirectory);
+		List<Entry> entries = new ArrayList<>();
+		if (trees != null) {
+			for (File tree : trees) {
+				entries.add(new Entry(tree, sizeOf(tree.toPath()), () -> Files.forceDelete(tree.toPath())));
+			}
+		}
+		return entries;
+	}
+
+	private static long sizeOf(Path tree) throws IOException {
+		try (Stream<Path> files = java.nio.file.Files.walk(tree)) {
+			return files
+					.filter(java.nio.file.Files::isRegularFile)
+					.mapToLong(path -> path.toFile().length())
+					.sum();
+		} catch (UncheckedIOException uix) {
+			throw uix.getCause();
+		}
+	}
+
+	public static ImmutableStoreJanitor.Builder builder() {
+		return ImmutableStoreJanitor.builder();
+	}
+
+	private static class Entry {
+
+		private final File file;
+		private final long size;
+		private final long lastAccess;
+		private final StoreAccess.Eviction eviction;
+
+		private Entry(File file, long size, StoreAccess.Eviction eviction) {
+			this.file = file.getAbsoluteFile();
+			this.size = size;
+			this.lastAccess = StoreAccess.lastAccess(file);
+			this.eviction = eviction;
+		}
+	}
+}
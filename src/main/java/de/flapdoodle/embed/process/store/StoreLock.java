@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.io.file.Files;
+
+/**
+ * not part of public api
+ *
+ * advisory lock on a lock file, so that processes sharing an artifact store or extraction
+ * directory download and extract an archive only once; a lock file is only deleted by its holder
+ * (deleteLockFile), which marks it as stale first, so that whoever waits on the deleted file
+ * opens the lock file again instead of becoming a second holder
+ */
+class StoreLock implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(StoreLock.class);
+
+	static final String LOCK_SUFFIX = ".lock";
+
+	private static final long POLL_INTERVAL = 100;
+
+	private final File lockFile;
+	private final FileChannel channel;
+	private final FileLock lock;
+
+	private StoreLock(File lockFile, FileChannel channel, FileLock lock) {
+		this.lockFile = lockFile;
+		this.channel = channel;
+		this.lock = lock;
+	}
+
+	static File lockFileFor(File file) {
+		return new File(file.getParentFile(), file.getName() + LOCK_SUFFIX);
+	}
+
+	/**
+	 * waits up to timeout (ms) for the lock of file, fails after that, so a stuck process does not
+	 * block everyone else forever and nobody writes the same file without the lock
+	 */
+	static StoreLock lock(File file, long timeout) throws IOException {
+		File lockFile = lockFileFor(file);
+		Files.createOrCheckDir(lockFile.getParentFile());
+		FileChannel channel = open(lockFile);
+		try {
+			long waitUntil = System.currentTimeMillis() + timeout;
+			boolean waiting = false;
+			while (true) {
+				FileLock lock = tryLock(channel);
+				if (lock != null && isStale(channel) && !reuseStale(lockFile, channel)) {
+					// deleted by the previous holder, try the current lock file
+					lock.release();
+					channel.close();
+					channel = open(lockFile);
+					continue;
+				}
+				if (lock != null) {
+					if (waiting) {
+						logger.info("got lock {}", lockFile);
+					}
+					return new StoreLock(lockFile, channel, lock);
+				}
+				if (System.currentTimeMillis() >= waitUntil) {
+					throw new IOException("could not get lock " + lockFile + " within " + timeout + "ms");
+				}
+				if (!waiting) {
+					logger.info("waiting for lock {}", lockFile);
+					waiting = true;
+				}
+				Thread.sleep(POLL_INTERVAL);
+			}
+		} catch (InterruptedException ix) {
+			channel.close();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for " + lockFile);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * the lock of file if nobody holds it right now, without waiting
+	 */
+	static Optional<StoreLock> tryLock(File file) throws IOException {
+		File lockFile = lockFileFor(file);
+		Files.createOrCheckDir(lockFile.getParentFile());
+		while (true) {
+			FileChannel channel = open(lockFile);
+			try {
+				FileLock lock = tryLock(channel);
+				if (lock == null) {
+					channel.close();
+					return Optional.empty();
+				}
+				if (!isStale(channel) || reuseStale(lockFile, channel)) {
+					return Optional.of(new StoreLock(lockFile, channel, lock));
+				}
+				// deleted by the previous holder, try the current lock file
+				lock.release();
+				channel.close();
+			} catch (IOException | RuntimeException ex) {
+				channel.close();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * marks the lock file as stale and deletes it, the lock is still held until close;
+	 * if the lock file could not be deleted, the next holder resets it
+	 */
+	void deleteLockFile() throws IOException {
+		channel.write(ByteBuffer.wrap(new byte[] { 1 }), 0);
+		try {
+			java.nio.file.Files.deleteIfExists(lockFile.toPath());
+		} catch (IOException iox) {
+			logger.debug("could not delete {}", lockFile, iox);
+		}
+	}
+
+	private static FileChannel open(File lockFile) throws IOException {
+		return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private static boolean isStale(FileChannel channel) throws IOException {
+		return channel.size() > 0;
+	}
+
+	/**
+	 * a stale lock file which can not be deleted is still the one everybody opens, so its
+	 * holder resets and keeps it
+	 */
+	private static boolean reuseStale(File lockFile, FileChannel channel) throws IOException {
+		try {
+			java.nio.file.Files.deleteIfExists(lockFile.toPath());
+			return false;
+		} catch (IOException iox) {
+			logger.debug("could not delete stale {}, reuse it", lockFile, iox);
+			channel.truncate(0);
+			return true;
+		}
+	}
+
+	private static FileLock tryLock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock();
+		} catch (OverlappingFileLockException ox) {
+			// held by another thread of this process
+			return null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			channel.close();
+		}
+	}
+}
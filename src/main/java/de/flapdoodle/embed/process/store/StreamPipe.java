@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * not part of public api
+ *
+ * hands the bytes of a download to a consumer running on its own thread while they arrive,
+ * bytes are passed with their position in the download file, so that retries and resumed
+ * downloads continue the stream where the consumer is
+ */
+class StreamPipe {
+
+	private static final int CHUNKS = 64;
+	private static final int FILL_BUFFER_LENGTH = 1024 * 8 * 8;
+	private static final long OFFER_TIMEOUT = 100;
+	private static final byte[] END = new byte[0];
+
+	private static final ExecutorService CONSUMERS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "download-consumer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS);
+	private final CompletableFuture<Void> consumed;
+
+	private volatile boolean consumerClosed = false;
+	private volatile IOException failure;
+	private long written = 0;
+	private boolean finished = false;
+
+	private StreamPipe(Downloader.ArchiveStreamConsumer consumer) {
+		this.consumed = CompletableFuture.runAsync(() -> {
+			try (InputStream in = new Input()) {
+				consumer.accept(in);
+			} catch (IOException iox) {
+				// consumer is done anyway
+			}
+		}, CONSUMERS);
+	}
+
+	static StreamPipe start(Downloader.ArchiveStreamConsumer consumer) {
+		return new StreamPipe(consumer);
+	}
+
+	long written() {
+		return written;
+	}
+
+	/**
+	 * download stream starting at position of the download file, bytes the consumer already got are skipped,
+	 * missing bytes before position are read from file
+	 */
+	InputStream tee(InputStream source, long position, FileChannel file) {
+		return new FilterInputStream(source) {
+			private long current = position;
+
+			@Override
+			public int read() throws IOException {
+				int ret = super.read();
+				if (ret != -1) {
+					write(current, new byte[] { (byte) ret }, 0, 1, file);
+					current++;
+				}
+				return ret;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					write(current, b, off, read, file);
+					current += read;
+				}
+				return read;
+			}
+		};
+	}
+
+	private void write(long position, byte[] b, int off, int len, FileChannel file) throws IOException {
+		if (consumerClosed || finished) {
+			return;
+		}
+		fill(position, file);
+		if (consumerClosed) {
+			return;
+		}
+		long skip = Math.max(0, written - position);
+		if (skip < len) {
+			put(copyOf(b, off + (int) skip, len - (int) skip));
+		}
+	}
+
+	/**
+	 * passes bytes between what the consumer got and position from file
+	 */
+	private void fill(long position, FileChannel file) throws IOException {
+		while (written < position && !consumerClosed) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(FILL_BUFFER_LENGTH, position - written));
+			int read = file.read(buffer, written);
+			if (read == -1) {
+				throw new IOException("download file ends at " + written + ", expected " + position);
+			}
+			put(copyOf(buffer.array(), 0, read));
+		}
+	}
+
+	private void put(byte[] chunk) throws InterruptedIOException {
+		try {
+			while (!consumerClosed) {
+				if (chunks.offer(chunk, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					written += chunk.length;
+					return;
+				}
+			}
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while passing download to consumer");
+		}
+	}
+
+	private static byte[] copyOf(byte[] b, int off, int len) {
+		byte[] ret = new byte[len];
+		System.arraycopy(b, off, ret, 0, len);
+		return ret;
+	}
+
+	/**
+	 * download is complete with length bytes, the consumer gets the rest from file,
+	 * returns after the consumer is done
+	 */
+	void finish(FileChannel file, long length) throws IOException {
+		if (!finished) {
+			try {
+				fill(length, file);
+			} catch (IOException iox) {
+				abort(iox);
+				throw iox;
+			}
+			finished = true;
+			put(END);
+		}
+		awaitConsumer();
+	}
+
+	/**
+	 * the consumer gets failure, returns after the consumer is done
+	 */
+	void abort(IOException cause) throws InterruptedIOException {
+		if (!finished) {
+			failure = cause;
+			finished = true;
+			put(END);
+		}
+		awaitConsumer();
+	}
+
+	private void awaitConsumer() throws InterruptedIOException {
+		try {
+			consumed.get();
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for consumer");
+		} catch (ExecutionException ex) {
+			// consumer failures are handled by the consumer
+		}
+	}
+
+	private class Input extends InputStream {
+
+		private byte[] chunk = new byte[0];
+		private int pos = 0;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (pos == chunk.length) {
+				if (chunk == END) {
+					return end();
+				}
+				try {
+					chunk = chunks.take();
+					pos = 0;
+				} catch (InterruptedException ix) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for download");
+				}
+			}
+			int count = Math.min(len, chunk.length - pos);
+			System.arraycopy(chunk, pos, b, off, count);
+			pos += count;
+			return count;
+		}
+
+		private int end() throws IOException {
+			if (failure != null) {
+				throw new IOException("download failed", failure);
+			}
+			return -1;
+		}
+
+		@Override
+		public void close() {
+			consumerClosed = true;
+			chunks.clear();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.extract.ExtractedFileSet;
+import de.flapdoodle.embed.process.io.file.Files;
+
+/**
+ * looks for an archive in the local artifact store, then in shared read-only directories
+ * (same layout as the artifact store, e.g. a network volume or a directory baked into an image),
+ * and downloads it only if no tier has it; archives found in a shared directory are verified
+ * (if there is an expected sha-256) and hardlinked (or copied) into the local artifact store;
+ * nothing is looked up if an ExtractedArtifactStore delegate already has a complete extraction
+ */
+public class TieredArtifactStore implements IArtifactStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(TieredArtifactStore.class);
+
+	static final String LOCAL = "local";
+	static final String REMOTE = "remote";
+	static final String PROMOTE_INFIX = ".promote-";
+
+	private final DownloadConfig downloadConfig;
+	private final IArtifactStore delegate;
+	private final Predicate<Distribution> extracted;
+	private final List<File> sharedDirectories;
+
+	private final Counter local = new Counter(LOCAL);
+	private final List<Counter> shared;
+	private final Counter remote = new Counter(REMOTE);
+
+	TieredArtifactStore(DownloadConfig downloadConfig, IArtifactStore delegate, Predicate<Distribution> extracted, List<File> sharedDirectories) {
+		this.downloadConfig = downloadConfig;
+		this.delegate = delegate;
+		this.extracted = extracted;
+		this.sharedDirectories = Collections.unmodifiableList(new ArrayList<>(sharedDirectories));
+		this.shared = sharedDirectories.stream()
+				.map(dir -> new Counter(dir.getAbsolutePath()))
+				.collect(Collectors.toList());
+	}
+
+	public static TieredArtifactStore of(ArtifactStore delegate, File... sharedDirectories) {
+		return new TieredArtifactStore(delegate.downloadConfig(), delegate, __ -> false, Arrays.asList(sharedDirectories));
+	}
+
+	public static TieredArtifactStore of(ExtractedArtifactStore delegate, File... sharedDirectories) {
+		return new TieredArtifactStore(delegate.downloadConfig(), delegate, delegate::isExtracted, Arrays.asList(sharedDirectories));
+	}
+
+	@Override
+	public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+		promote(distribution);
+		return delegate.extractFileSet(distribution);
+	}
+
+	@Override
+	public void removeFileSet(Distribution distribution, ExtractedFileSet files) {
+		delegate.removeFileSet(distribution, files);
+	}
+
+	@Override
+	public PrefetchReport prefetch(Collection<Distribution> distributions, Executor executor) {
+		return Prefetch.run(distributions, executor, distribution -> {
+			promote(distribution);
+			PrefetchReport report = delegate.prefetch(Collections.singletonList(distribution), Runnable::run);
+			if (!report.isSuccess()) {
+				Throwable failure = report.failures().get(0).failure().get();
+				throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+			}
+		});
+	}
+
+	/**
+	 * local, then every shared directory in the given order, then remote
+	 */
+	public List<TierStatistics> statistics() {
+		List<TierStatistics> ret = new ArrayList<>();
+		ret.add(local.statistics());
+		shared.forEach(counter -> ret.add(counter.statistics()));
+		ret.add(remote.statistics());
+		return Collections.unmodifiableList(ret);
+	}
+
+	private void promote(Distribution distribution) throws IOException {
+		if (extracted.test(distribution) || LocalArtifactStore.checkArtifact(downloadConfig, distribution)) {
+			local.hit();
+			return;
+		}
+		local.miss();
+
+		String archivePath = downloadConfig.getPackageResolver().packageFor(distribution).archivePath();
+		for (int i = 0; i < sharedDirectories.size(); i++) {
+			File candidate = new File(sharedDirectories.get(i), archivePath);
+			if (candidate.isFile() && promote(distribution, candidate)) {
+				shared.get(i).hit();
+				return;
+			}
+			shared.get(i).miss();
+		}
+
+		// not found anywhere, the delegate will download it
+		remote.hit();
+	}
+
+	/**
+	 * false if source does not match the expected sha-256
+	 */
+	private boolean promote(Distribution distribution, File source) throws IOException {
+		File artifactFile = LocalArtifactStore.artifactFile(downloadConfig, distribution);
+		try (StoreLock lock = StoreLock.lock(artifactFile, downloadConfig.getTimeoutConfig().getLockTimeout())) {
+			if (LocalArtifactStore.checkArtifact(downloadConfig, distribution)) {
+				return true;
+			}
+			// next to its final place, so that storing it is a move on the same file system
+			File promoted = new File(artifactFile.getParentFile(), artifactFile.getName() + PROMOTE_INFIX + UUID.randomUUID());
+			try {
+				linkOrCopy(source, promoted);
+				Optional<String> expectedSha256 = Checksum.expectedSha256(downloadConfig, distribution);
+				if (expectedSha256.isPresent()) {
+					String sha256 = Checksum.sha256(promoted);
+					if (!sha256.equals(expectedSha256.get())) {
+						logger.warn("sha-256 of {} is {}, expected {}, skip it", source, sha256, expectedSha256.get());
+						return false;
+					}
+					Checksum.verified(promoted, sha256);
+				}
+				if (!LocalArtifactStore.store(downloadConfig, distribution, promoted)) {
+					throw new IOException("could not promote " + source + " to " + artifactFile);
+				}
+				return true;
+			} finally {
+				java.nio.file.Files.deleteIfExists(promoted.toPath());
+			}
+		}
+	}
+
+	private static void linkOrCopy(File source, File target) throws IOException {
+		Files.createOrCheckDir(target.getParentFile());
+		try {
+			java.nio.file.Files.createLink(target.toPath(), source.toPath());
+			logger.debug("linked {} to {}", source, target);
+		} catch (UnsupportedOperationException | IOException iox) {
+			java.nio.file.Files.copy(source.toPath(), target.toPath());
+			logger.debug("copied {} to {}", source, target);
+		}
+	}
+
+	static class Counter {
+
+		private final String tier;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+
+		Counter(String tier) {
+			this.tier = tier;
+		}
+
+		void hit() {
+			hits.incrementAndGet();
+		}
+
+		void miss() {
+			misses.incrementAndGet();
+		}
+
+		TierStatistics statistics() {
+			return TierStatistics.of(tier, hits.get(), misses.get());
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * how a download is copied from the connection into the download file
+ */
+public enum TransferMode {
+	/**
+	 * heap buffer, progress for every chunk
+	 */
+	STREAM {
+		@Override
+		long transfer(InputStream source, FileChannel destination, Progress progress) throws IOException {
+			BufferedInputStream bis = new BufferedInputStream(source);
+			byte[] buf = new byte[BUFFER_LENGTH];
+			long readCount = 0;
+			int read;
+			while ((read = bis.read(buf)) != -1) {
+				ByteBuffer buffer = ByteBuffer.wrap(buf, 0, read);
+				while (buffer.hasRemaining()) {
+					destination.write(buffer);
+				}
+				readCount = readCount + read;
+				progress.transferred(readCount);
+			}
+			return readCount;
+		}
+	},
+	/**
+	 * FileChannel.transferFrom in large slices, zero copy if the source is backed by a channel,
+	 * progress for every slice
+	 */
+	TRANSFER_FROM {
+		@Override
+		long transfer(InputStream source, FileChannel destination, Progress progress) throws IOException {
+			ReadableByteChannel channel = Channels.newChannel(source);
+			long start = destination.position();
+			long position = start;
+			long transferred;
+			while ((transferred = destination.transferFrom(channel, position, SLICE_LENGTH)) > 0) {
+				position = position + transferred;
+				progress.transferred(position - start);
+			}
+			destination.position(position);
+			return position - start;
+		}
+	},
+	/**
+	 * reusable direct buffer for sources which can not be transferred,
+	 * progress for every filled buffer
+	 */
+	DIRECT_BUFFER {
+		@Override
+		long transfer(InputStream source, FileChannel destination, Progress progress) throws IOException {
+			ReadableByteChannel channel = Channels.newChannel(source);
+			ByteBuffer buffer = DIRECT_BUFFERS.get();
+			buffer.clear();
+			long readCount = 0;
+			boolean endOfStream = false;
+			while (!endOfStream) {
+				int read = channel.read(buffer);
+				if (read == -1) {
+					endOfStream = true;
+				} else {
+					readCount = readCount + read;
+				}
+				if (endOfStream || !buffer.hasRemaining()) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						destination.write(buffer);
+					}
+					buffer.clear();
+					progress.transferred(readCount);
+				}
+			}
+			return readCount;
+		}
+	};
+
+	private static final int BUFFER_LENGTH = 1024 * 8 * 8;
+	private static final long SLICE_LENGTH = 4 * 1024 * 1024;
+	private static final int DIRECT_BUFFER_LENGTH = 1024 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_LENGTH));
+
+	/**
+	 * copies source into destination starting at the current position of destination,
+	 * destination position is moved to the end of the copied bytes
+	 *
+	 * @return number of bytes copied
+	 */
+	abstract long transfer(InputStream source, FileChannel destination, Progress progress) throws IOException;
+
+	@FunctionalInterface
+	interface Progress {
+		/**
+		 * @param bytes bytes transferred so far
+		 */
+		void transferred(long bytes) throws IOException;
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * not part of public api
+ *
+ * a download failure worth a retry: a server error (5xx) or a download which ended early;
+ * isTransient also accepts timeouts and reset or closed connections, everything else (404, unknown host,
+ * refused connection, checksum mismatch) is reported at once
+ */
+class TransientDownloadException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	TransientDownloadException(String message) {
+		super(message);
+	}
+
+	static boolean isTransient(Throwable failure) {
+		for (Throwable ex = failure; ex != null; ex = ex.getCause()) {
+			if (ex instanceof TransientDownloadException || ex instanceof SocketTimeoutException || ex instanceof EOFException) {
+				return true;
+			}
+			if (ex instanceof IOException && "Premature EOF".equals(ex.getMessage())) {
+				// HttpURLConnection, connection closed within a chunked response
+				return true;
+			}
+			if (ex instanceof SocketException && !(ex instanceof ConnectException)
+					&& ex.getMessage() != null && ex.getMessage().contains("reset")) {
+				return true;
+			}
+			if (ex instanceof Checksum.ChecksumMismatchException) {
+				return false;
+			}
+		}
+		return false;
+	}
+}
@@ -23,23 +23,23 @@
  */
 package de.flapdoodle.embed.process.store;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Optional;
 
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
 import de.flapdoodle.embed.process.config.store.ProxyFactory;
+import de.flapdoodle.embed.process.config.store.RetryConfig;
 import de.flapdoodle.embed.process.config.store.TimeoutConfig;
 import de.flapdoodle.embed.process.distribution.Distribution;
-import de.flapdoodle.embed.process.io.directories.PropertyOrPlatformTempDir;
-import de.flapdoodle.embed.process.io.file.Files;
 import de.flapdoodle.embed.process.io.progress.ProgressListener;
 
 /**
@@ -48,97 +48,235 @@ import de.flapdoodle.embed.process.io.progress.ProgressListener;
 public class UrlConnectionDownloader implements Downloader {
 
 	private static final int DEFAULT_CONTENT_LENGTH = 20 * 1024 * 1024;
-	private static final int BUFFER_LENGTH = 1024 * 8 * 8;
 	private static final int READ_COUNT_MULTIPLIER = 100;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	private static final int JOURNAL_INTERVAL = 4 * 1024 * 1024;
+
+	private final TransferMode transferMode;
+
+	public UrlConnectionDownloader() {
+		this(TransferMode.STREAM);
+	}
+
+	public UrlConnectionDownloader(TransferMode transferMode) {
+		this.transferMode = transferMode;
+	}
 
 	@Override
 	public String getDownloadUrl(DownloadConfig runtime, Distribution distribution) {
+		return downloadUrl(runtime, distribution);
+	}
+
+	static String downloadUrl(DownloadConfig runtime, Distribution distribution) {
 		return runtime.getDownloadPath().getPath(distribution) + runtime.getPackageResolver().packageFor(distribution).archivePath();
 	}
 
 	@Override
 	public File download(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		return download(downloadConfig, distribution, Optional.empty());
+	}
+
+	/**
+	 * consumer gets the bytes while they are written to the download file
+	 */
+	@Override
+	public File download(DownloadConfig downloadConfig, Distribution distribution, ArchiveStreamConsumer consumer) throws IOException {
+		return download(downloadConfig, distribution, Optional.of(consumer));
+	}
+
+	private File download(DownloadConfig downloadConfig, Distribution distribution, Optional<ArchiveStreamConsumer> consumer)
+			throws IOException {
 
 		String progressLabel = "Download " + distribution;
 		ProgressListener progress = downloadConfig.getProgressListener();
 		progress.start(progressLabel);
 
-		File ret = Files.createTempFile(PropertyOrPlatformTempDir.defaultInstance(), downloadConfig.getFileNaming()
-				.nameFor(downloadConfig.getDownloadPrefix(), "." + downloadConfig.getPackageResolver().packageFor(distribution).archiveType()));
-		if (ret.canWrite()) {
+		RetryConfig retryConfig = downloadConfig.getRetryConfig();
+		Optional<String> expectedSha256 = Checksum.expectedSha256(downloadConfig, distribution);
+		DownloadLimiter limiter = DownloadLimiter.of(downloadConfig);
+		try (DownloadLimiter.Permit permit = limiter.acquire(progress, progressLabel)) {
+			PartialDownload partialDownload = PartialDownload.of(downloadConfig, distribution);
+			Optional<StreamPipe> pipe = consumer.map(StreamPipe::start);
+			try {
+				int retry = 0;
+				while (true) {
+					try {
+						download(downloadConfig, distribution, partialDownload, expectedSha256, limiter, pipe, progress, progressLabel);
+						break;
+					} catch (IOException iox) {
+						if (retry >= retryConfig.getMaxRetries() || !TransientDownloadException.isTransient(iox)) {
+							throw iox;
+						}
+						retry++;
+						long delay = retryConfig.delay(retry);
+						progress.info(progressLabel, "download failed (" + iox.getMessage() + "), retry " + retry + " in " + delay + "ms");
+						sleep(delay);
+					}
+				}
+				if (pipe.isPresent()) {
+					pipe.get().finish(partialDownload.channel(), partialDownload.channel().size());
+				}
+			} catch (IOException | RuntimeException ex) {
+				if (pipe.isPresent()) {
+					pipe.get().abort(ex instanceof IOException ? (IOException) ex : new IOException(ex));
+				}
+				partialDownload.abort();
+				throw ex;
+			}
+
+			progress.done(progressLabel);
+			File ret = partialDownload.complete();
+			return expectedSha256.isPresent() ? Checksum.verified(ret, expectedSha256.get()) : ret;
+		}
+	}
 
-			BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(ret));
+	private void download(DownloadConfig downloadConfig, Distribution distribution, PartialDownload partialDownload,
+			Optional<String> expectedSha256, DownloadLimiter limiter, Optional<StreamPipe> pipe, ProgressListener progress,
+			String progressLabel) throws IOException {
 
-			InputStreamAndLength downloadStreamAndLength = downloadInputStream(downloadConfig, distribution);
-			
-			long length = downloadStreamAndLength.contentLength();
-			InputStream downloadStream = downloadStreamAndLength.downloadStream();
-			
-			progress.info(progressLabel, "DownloadSize: " + length);
-			
-			if (length == -1) length = DEFAULT_CONTENT_LENGTH;
+		String url = getDownloadUrl(downloadConfig, distribution);
+		long resumeOffset = partialDownload.resumeOffset(url);
+		if (resumeOffset > 0 && partialDownload.length().map(length -> length == resumeOffset).orElse(false)) {
+			progress.info(progressLabel, "already downloaded");
+			if (expectedSha256.isPresent()) {
+				MessageDigest digest = Checksum.sha256();
+				Checksum.update(digest, partialDownload.channel(), resumeOffset);
+				verify(url, expectedSha256.get(), digest, partialDownload);
+			}
+			return;
+		}
 
+		InputStreamAndLength downloadStreamAndLength = downloadInputStream(downloadConfig, distribution, resumeOffset, partialDownload.validator());
+		long offset = downloadStreamAndLength.isPartial() ? resumeOffset : 0;
 
+		long expectedLength = downloadStreamAndLength.contentLength() != -1
+				? offset + downloadStreamAndLength.contentLength()
+				: -1;
+		partialDownload.startAt(offset, url, downloadStreamAndLength.etag(), downloadStreamAndLength.lastModified(), expectedLength);
 
-			long downloadStartedAt = System.currentTimeMillis();
-			
-			try {
-				BufferedInputStream bis = new BufferedInputStream(downloadStream);
-				byte[] buf = new byte[BUFFER_LENGTH];
-				int read = 0;
-				long readCount = 0;
-				while ((read = bis.read(buf)) != -1) {
-					bos.write(buf, 0, read);
-					readCount = readCount + read;
-					if (readCount > length) length = readCount;
-
-					progress.progress(progressLabel, (int) (readCount * READ_COUNT_MULTIPLIER / length));
-				}
-				progress.info(progressLabel, "downloaded with " + downloadSpeed(downloadStartedAt,length));
-			} finally {
-				downloadStream.close();
-				bos.flush();
-				bos.close();
+		InputStream downloadStream = limiter.throttled(downloadStreamAndLength.downloadStream());
+
+		if (pipe.isPresent()) {
+			if (!downloadStreamAndLength.isPartial() && pipe.get().written() > 0) {
+				// content may have changed, what the consumer got so far is not part of this download
+				pipe.get().abort(new IOException("download of " + url + " started over"));
 			}
-		} else {
-			throw new IOException("Can not write " + ret);
+			downloadStream = pipe.get().tee(downloadStream, offset, partialDownload.channel());
+		}
+
+		Optional<MessageDigest> digest = expectedSha256.map(__ -> Checksum.sha256());
+		if (digest.isPresent()) {
+			// only the resumed part is read again, the rest is hashed while it is copied
+			Checksum.update(digest.get(), partialDownload.channel(), offset);
+			downloadStream = new DigestInputStream(downloadStream, digest.get());
+		}
+
+		if (offset > 0) {
+			progress.info(progressLabel, "resume at " + offset);
+		}
+		progress.info(progressLabel, "DownloadSize: " + expectedLength);
+
+		long length = expectedLength != -1 ? expectedLength : DEFAULT_CONTENT_LENGTH;
+
+		long downloadStartedAt = System.currentTimeMillis();
+
+		try {
+			long transferred = transferMode.transfer(downloadStream, partialDownload.channel(),
+					new JournalingProgress(partialDownload, offset, length, progress, progressLabel));
+			long readCount = offset + transferred;
+			if (expectedLength != -1 && readCount < expectedLength) {
+				throw new TransientDownloadException("download of " + url + " ended after " + readCount + " of " + expectedLength + " bytes");
+			}
+			progress.info(progressLabel, "downloaded with " + downloadSpeed(downloadStartedAt, transferred));
+		} finally {
+			downloadStream.close();
+			partialDownload.received(partialDownload.channel().position());
+		}
+
+		if (digest.isPresent()) {
+			verify(url, expectedSha256.get(), digest.get(), partialDownload);
 		}
-		progress.done(progressLabel);
-		return ret;
 	}
 
-	private InputStreamAndLength downloadInputStream(DownloadConfig downloadConfig, Distribution distribution)
-			throws IOException {
+	/**
+	 * a download which does not match is thrown away, a retry starts over
+	 */
+	private static void verify(String url, String expectedSha256, MessageDigest digest, PartialDownload partialDownload) throws IOException {
+		try {
+			Checksum.verify(url, expectedSha256, digest);
+		} catch (Checksum.ChecksumMismatchException cmx) {
+			partialDownload.discard();
+			throw cmx;
+		}
+	}
+
+	private static void sleep(long delay) throws IOException {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for retry");
+		}
+	}
+
+	private InputStreamAndLength downloadInputStream(DownloadConfig downloadConfig, Distribution distribution, long offset,
+			Optional<String> validator) throws IOException {
 		URL url = new URL(getDownloadUrl(downloadConfig, distribution));
 		
 		Optional<Proxy> proxy = downloadConfig.proxyFactory().map(ProxyFactory::createProxy);
 		
 		try {
-			URLConnection openConnection;
-			if (proxy.isPresent()) {
-				openConnection = url.openConnection(proxy.get());
-			} else {
-				openConnection = url.openConnection();
+			URLConnection openConnection = openConnection(downloadConfig, url, proxy);
+			if (offset > 0 && validator.isPresent()) {
+				openConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+				openConnection.setRequestProperty("If-Range", validator.get());
 			}
-			openConnection.setRequestProperty("User-Agent",downloadConfig.getUserAgent());
-			if (downloadConfig.getAuthorization().isPresent()) {
-				openConnection.setRequestProperty("Authorization", downloadConfig.getAuthorization().get());
+
+			boolean partial = false;
+			if (openConnection instanceof HttpURLConnection) {
+				int responseCode = ((HttpURLConnection) openConnection).getResponseCode();
+				if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+					((HttpURLConnection) openConnection).disconnect();
+					throw new TransientDownloadException("Could not download " + url + ", status " + responseCode);
+				}
+				if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+					// partial download does not match anymore, start over
+					((HttpURLConnection) openConnection).disconnect();
+					return downloadInputStream(downloadConfig, distribution, 0, Optional.empty());
+				}
+				partial = offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL;
 			}
-			
-			TimeoutConfig timeoutConfig = downloadConfig.getTimeoutConfig();
-			
-			openConnection.setConnectTimeout(timeoutConfig.getConnectionTimeout());
-			openConnection.setReadTimeout(downloadConfig.getTimeoutConfig().getReadTimeout());
-	
+
 			InputStream downloadStream = openConnection.getInputStream();
 	
-			return new InputStreamAndLength(downloadStream,openConnection.getContentLength());
+			return new InputStreamAndLength(downloadStream, openConnection.getContentLengthLong(), partial,
+					Optional.ofNullable(openConnection.getHeaderField("ETag")),
+					Optional.ofNullable(openConnection.getHeaderField("Last-Modified")));
 		} catch (IOException iox) {
 			throw new IOException("Could not open inputStream for " + url + " with proxy " + proxy, iox);
 		}
 	}
 
-	private String downloadSpeed(long downloadStartedAt,long downloadSize) {
+	static URLConnection openConnection(DownloadConfig downloadConfig, URL url, Optional<Proxy> proxy) throws IOException {
+		URLConnection openConnection;
+		if (proxy.isPresent()) {
+			openConnection = url.openConnection(proxy.get());
+		} else {
+			openConnection = url.openConnection();
+		}
+		openConnection.setRequestProperty("User-Agent",downloadConfig.getUserAgent());
+		if (downloadConfig.getAuthorization().isPresent()) {
+			openConnection.setRequestProperty("Authorization", downloadConfig.getAuthorization().get());
+		}
+
+		TimeoutConfig timeoutConfig = downloadConfig.getTimeoutConfig();
+
+		openConnection.setConnectTimeout(timeoutConfig.getConnectionTimeout());
+		openConnection.setReadTimeout(timeoutConfig.getReadTimeout());
+		return openConnection;
+	}
+
+	static String downloadSpeed(long downloadStartedAt,long downloadSize) {
 		long timeUsed=(System.currentTimeMillis()-downloadStartedAt)/1000;
 		if (timeUsed==0) {
 			timeUsed=1;
@@ -148,24 +286,71 @@ public class UrlConnectionDownloader implements Downloader {
 	}
 
 
+	private static class JournalingProgress implements TransferMode.Progress {
+
+		private final PartialDownload partialDownload;
+		private final long offset;
+		private final long length;
+		private final ProgressListener progress;
+		private final String progressLabel;
+		private long journaledCount;
+
+		JournalingProgress(PartialDownload partialDownload, long offset, long length, ProgressListener progress, String progressLabel) {
+			this.partialDownload = partialDownload;
+			this.offset = offset;
+			this.length = length;
+			this.progress = progress;
+			this.progressLabel = progressLabel;
+			this.journaledCount = offset;
+		}
+
+		@Override
+		public void transferred(long bytes) throws IOException {
+			long readCount = offset + bytes;
+			if (readCount - journaledCount >= JOURNAL_INTERVAL) {
+				partialDownload.received(readCount);
+				journaledCount = readCount;
+			}
+			progress.progress(progressLabel, (int) (readCount * READ_COUNT_MULTIPLIER / Math.max(length, readCount)));
+		}
+	}
+
 	static class InputStreamAndLength {
 
 		private final InputStream _downloadStream;
-		private final int _contentLength;
+		private final long _contentLength;
+		private final boolean _partial;
+		private final Optional<String> _etag;
+		private final Optional<String> _lastModified;
 
-		public InputStreamAndLength(InputStream downloadStream, int contentLength) {
+		public InputStreamAndLength(InputStream downloadStream, long contentLength, boolean partial, Optional<String> etag,
+				Optional<String> lastModified) {
 			_downloadStream = downloadStream;
 			_contentLength = contentLength;
+			_partial = partial;
+			_etag = etag;
+			_lastModified = lastModified;
 		}
 		
 		
-		public int contentLength() {
+		public long contentLength() {
 			return _contentLength;
 		}
 		
 		public InputStream downloadStream() {
 			return _downloadStream;
 		}
-		
+
+		public boolean isPartial() {
+			return _partial;
+		}
+
+		public Optional<String> etag() {
+			return _etag;
+		}
+
+		public Optional<String> lastModified() {
+			return _lastModified;
+		}
 	}
 }
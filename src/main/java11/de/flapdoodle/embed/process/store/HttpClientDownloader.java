@@ -0,0 +1,450 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.ProxyFactory;
+import de.flapdoodle.embed.process.config.store.RetryConfig;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
+
+/**
+ * Downloader based on a shared java.net.http.HttpClient (http/2, keep alive).
+ * All downloads with the same proxy and connection timeout share one client and so
+ * its connection pool. The response body is written without a thread per download.
+ * A failed download is resumed like in {@link UrlConnectionDownloader}, see {@link PartialDownload}.
+ */
+public class HttpClientDownloader implements Downloader {
+
+	private static final int READ_COUNT_MULTIPLIER = 100;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	private static final int JOURNAL_INTERVAL = 4 * 1024 * 1024;
+
+	private static final ConcurrentMap<List<Object>, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+	private final Optional<Executor> executor;
+
+	public HttpClientDownloader() {
+		this.executor = Optional.empty();
+	}
+
+	public HttpClientDownloader(Executor executor) {
+		this.executor = Optional.of(executor);
+	}
+
+	@Override
+	public String getDownloadUrl(DownloadConfig runtime, Distribution distribution) {
+		return UrlConnectionDownloader.downloadUrl(runtime, distribution);
+	}
+
+	@Override
+	public File download(DownloadConfig downloadConfig, Distribution distribution) throws IOException {
+		try {
+			return downloadAsync(downloadConfig, distribution).join();
+		} catch (CompletionException cx) {
+			if (cx.getCause() instanceof IOException) {
+				throw (IOException) cx.getCause();
+			}
+			throw new IOException(cx.getCause());
+		}
+	}
+
+	public CompletableFuture<File> downloadAsync(DownloadConfig downloadConfig, Distribution distribution) {
+		String progressLabel = "Download " + distribution;
+		ProgressListener progress = downloadConfig.getProgressListener();
+		progress.start(progressLabel);
+
+		DownloadLimiter limiter = DownloadLimiter.of(downloadConfig);
+		long queuedAt = System.currentTimeMillis();
+		// no thread is blocked while waiting for a download slot
+		return limiter.acquireAsync()
+				.thenCompose(permit -> {
+					DownloadLimiter.queued(progress, progressLabel, queuedAt);
+					return expectedSha256(downloadConfig, distribution)
+							.thenCompose(expectedSha256 -> download(downloadConfig, distribution, expectedSha256, limiter, progress, progressLabel))
+							.whenComplete((file, ex) -> permit.close());
+				})
+				.thenApply(file -> {
+					progress.done(progressLabel);
+					return file;
+				});
+	}
+
+	private CompletableFuture<Optional<String>> expectedSha256(DownloadConfig downloadConfig, Distribution distribution) {
+		DistributionPackage distributionPackage = downloadConfig.getPackageResolver().packageFor(distribution);
+		if (distributionPackage.expectedSha256().isPresent()) {
+			try {
+				return CompletableFuture.completedFuture(Optional.of(Checksum.parse(distributionPackage.expectedSha256().get())));
+			} catch (IOException iox) {
+				return CompletableFuture.failedFuture(iox);
+			}
+		}
+		if (!distributionPackage.sha256Path().isPresent()) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+		URI uri = URI.create(Checksum.checksumUrl(downloadConfig, distribution, distributionPackage.sha256Path().get()));
+		return client(downloadConfig)
+				.sendAsync(request(downloadConfig, uri).build(), HttpResponse.BodyHandlers.ofString())
+				.thenApply(response -> {
+					try {
+						if (response.statusCode() != 200) {
+							throw new IOException("Could not read checksum from " + uri + ", status " + response.statusCode());
+						}
+						return Optional.of(Checksum.parse(response.body()));
+					} catch (IOException iox) {
+						throw new CompletionException(iox);
+					}
+				});
+	}
+
+	private CompletableFuture<File> download(DownloadConfig downloadConfig, Distribution distribution, Optional<String> expectedSha256,
+			DownloadLimiter limiter, ProgressListener progress, String progressLabel) {
+		PartialDownload partialDownload;
+		try {
+			partialDownload = PartialDownload.of(downloadConfig, distribution);
+		} catch (IOException iox) {
+			return CompletableFuture.failedFuture(iox);
+		}
+		return download(downloadConfig, distribution, partialDownload, expectedSha256, limiter, progress, progressLabel, 0)
+				.thenApply(__ -> {
+					try {
+						File ret = partialDownload.complete();
+						return expectedSha256.isPresent() ? Checksum.verified(ret, expectedSha256.get()) : ret;
+					} catch (IOException iox) {
+						throw new CompletionException(iox);
+					}
+				})
+				.whenComplete((file, ex) -> {
+					if (ex != null) {
+						try {
+							partialDownload.abort();
+						} catch (IOException iox) {
+							// the download has failed anyway
+						}
+					}
+				});
+	}
+
+	private CompletableFuture<Void> download(DownloadConfig downloadConfig, Distribution distribution, PartialDownload partialDownload,
+			Optional<String> expectedSha256, DownloadLimiter limiter, ProgressListener progress, String progressLabel, int retry) {
+		return downloadOnce(downloadConfig, distribution, partialDownload, expectedSha256, limiter, progress, progressLabel)
+				.handle((result, ex) -> {
+					if (ex == null) {
+						return CompletableFuture.<Void>completedFuture(null);
+					}
+					RetryConfig retryConfig = downloadConfig.getRetryConfig();
+					Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+					if (retry >= retryConfig.getMaxRetries() || !isTransient(cause)) {
+						return CompletableFuture.<Void>failedFuture(cause);
+					}
+					long delay = retryConfig.delay(retry + 1);
+					progress.info(progressLabel, "download failed (" + cause.getMessage() + "), retry " + (retry + 1) + " in " + delay + "ms");
+					Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+					return CompletableFuture.supplyAsync(() -> null, delayed)
+							.thenCompose(__ -> download(downloadConfig, distribution, partialDownload, expectedSha256, limiter, progress, progressLabel, retry + 1));
+				})
+				.thenCompose(it -> it);
+	}
+
+	private CompletableFuture<Void> downloadOnce(DownloadConfig downloadConfig, Distribution distribution, PartialDownload partialDownload,
+			Optional<String> expectedSha256, DownloadLimiter limiter, ProgressListener progress, String progressLabel) {
+		String url = getDownloadUrl(downloadConfig, distribution);
+		long resumeOffset;
+		try {
+			resumeOffset = partialDownload.resumeOffset(url);
+			if (resumeOffset > 0 && partialDownload.length().map(length -> length == resumeOffset).orElse(false)) {
+				progress.info(progressLabel, "already downloaded");
+				if (expectedSha256.isPresent()) {
+					MessageDigest digest = Checksum.sha256();
+					Checksum.update(digest, partialDownload.channel(), resumeOffset);
+					verify(url, expectedSha256.get(), digest, partialDownload);
+				}
+				return CompletableFuture.completedFuture(null);
+			}
+		} catch (IOException iox) {
+			return CompletableFuture.failedFuture(iox);
+		}
+
+		URI uri = URI.create(url);
+		HttpRequest.Builder request = request(downloadConfig, uri);
+		Optional<String> validator = partialDownload.validator();
+		if (resumeOffset > 0 && validator.isPresent()) {
+			request.header("Range", "bytes=" + resumeOffset + "-");
+			request.header("If-Range", validator.get());
+		}
+
+		long downloadStartedAt = System.currentTimeMillis();
+
+		return client(downloadConfig)
+				.sendAsync(request.build(), responseInfo -> {
+					int status = responseInfo.statusCode();
+					if (status == 200 || (status == 206 && resumeOffset > 0)) {
+						return new FileSubscriber(partialDownload, status == 206 ? resumeOffset : 0,
+								responseInfo.headers().firstValueAsLong("Content-Length").orElse(-1),
+								responseInfo.headers().firstValue("ETag"), responseInfo.headers().firstValue("Last-Modified"),
+								url, expectedSha256, limiter, progress, progressLabel);
+					}
+					return BodySubscribers.replacing(null);
+				})
+				.thenCompose(response -> {
+					if (response.statusCode() == HTTP_RANGE_NOT_SATISFIABLE && resumeOffset > 0) {
+						// partial download does not match anymore, start over
+						try {
+							partialDownload.discard();
+						} catch (IOException iox) {
+							return CompletableFuture.failedFuture(iox);
+						}
+						return downloadOnce(downloadConfig, distribution, partialDownload, expectedSha256, limiter, progress, progressLabel);
+					}
+					if (response.body() == null) {
+						String message = "Could not download " + uri + ", status " + response.statusCode();
+						return CompletableFuture.failedFuture(response.statusCode() >= 500
+								? new TransientDownloadException(message)
+								: new IOException(message));
+					}
+					progress.info(progressLabel, "downloaded with " + UrlConnectionDownloader.downloadSpeed(downloadStartedAt, response.body())
+							+ " (" + response.version() + ")");
+					return CompletableFuture.completedFuture(null);
+				});
+	}
+
+	private static boolean isTransient(Throwable failure) {
+		return failure instanceof HttpTimeoutException || TransientDownloadException.isTransient(failure);
+	}
+
+	/**
+	 * a download which does not match is thrown away, a retry starts over
+	 */
+	private static void verify(String url, String expectedSha256, MessageDigest digest, PartialDownload partialDownload) throws IOException {
+		try {
+			Checksum.verify(url, expectedSha256, digest);
+		} catch (Checksum.ChecksumMismatchException cmx) {
+			partialDownload.discard();
+			throw cmx;
+		}
+	}
+
+	private static HttpRequest.Builder request(DownloadConfig downloadConfig, URI uri) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+				.header("User-Agent", downloadConfig.getUserAgent())
+				.timeout(Duration.ofMillis(downloadConfig.getTimeoutConfig().getReadTimeout()))
+				.GET();
+		downloadConfig.getAuthorization().ifPresent(authorization -> request.header("Authorization", authorization));
+		return request;
+	}
+
+	private HttpClient client(DownloadConfig downloadConfig) {
+		Optional<Proxy> proxy = downloadConfig.proxyFactory().map(ProxyFactory::createProxy);
+		int connectionTimeout = downloadConfig.getTimeoutConfig().getConnectionTimeout();
+
+		return CLIENTS.computeIfAbsent(Arrays.asList(proxy, connectionTimeout, executor), __ -> {
+			HttpClient.Builder builder = HttpClient.newBuilder()
+					.version(HttpClient.Version.HTTP_2)
+					.followRedirects(HttpClient.Redirect.NORMAL)
+					.connectTimeout(Duration.ofMillis(connectionTimeout));
+			proxy.ifPresent(it -> builder.proxy(new FixedProxySelector(it)));
+			executor.ifPresent(builder::executor);
+			return builder.build();
+		});
+	}
+
+	static class FixedProxySelector extends ProxySelector {
+
+		private final Proxy proxy;
+
+		FixedProxySelector(Proxy proxy) {
+			this.proxy = proxy;
+		}
+
+		@Override
+		public List<Proxy> select(URI uri) {
+			return List.of(proxy);
+		}
+
+		@Override
+		public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+			// nothing to do, there is only one proxy
+		}
+	}
+
+	/**
+	 * writes the response body at offset into the partial download, the body is the number of bytes received
+	 */
+	static class FileSubscriber implements BodySubscriber<Long> {
+
+		private final CompletableFuture<Long> result = new CompletableFuture<>();
+		private final PartialDownload partialDownload;
+		private final long offset;
+		private final long expectedLength;
+		private final Optional<String> etag;
+		private final Optional<String> lastModified;
+		private final String url;
+		private final Optional<String> expectedSha256;
+		private final Optional<MessageDigest> digest;
+		private final DownloadLimiter limiter;
+		private final ProgressListener progress;
+		private final String progressLabel;
+
+		private Flow.Subscription subscription;
+		private long readCount;
+		private long journaledCount;
+		private int lastPercent = -1;
+
+		FileSubscriber(PartialDownload partialDownload, long offset, long contentLength, Optional<String> etag, Optional<String> lastModified,
+				String url, Optional<String> expectedSha256, DownloadLimiter limiter, ProgressListener progress, String progressLabel) {
+			this.partialDownload = partialDownload;
+			this.offset = offset;
+			this.expectedLength = contentLength != -1 ? offset + contentLength : -1;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.url = url;
+			this.expectedSha256 = expectedSha256;
+			this.digest = expectedSha256.map(__ -> Checksum.sha256());
+			this.limiter = limiter;
+			this.progress = progress;
+			this.progressLabel = progressLabel;
+			this.readCount = offset;
+			this.journaledCount = offset;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			try {
+				partialDownload.startAt(offset, url, etag, lastModified, expectedLength);
+				if (digest.isPresent()) {
+					// only the resumed part is read again, the rest is hashed while it is written
+					Checksum.update(digest.get(), partialDownload.channel(), offset);
+				}
+				if (offset > 0) {
+					progress.info(progressLabel, "resume at " + offset);
+				}
+				progress.info(progressLabel, "DownloadSize: " + expectedLength);
+				subscription.request(1);
+			} catch (IOException iox) {
+				subscription.cancel();
+				result.completeExceptionally(iox);
+			}
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			try {
+				FileChannel channel = partialDownload.channel();
+				long received = 0;
+				for (ByteBuffer item : items) {
+					received += item.remaining();
+					readCount += item.remaining();
+					if (digest.isPresent()) {
+						digest.get().update(item.duplicate());
+					}
+					while (item.hasRemaining()) {
+						channel.write(item);
+					}
+				}
+				if (readCount - journaledCount >= JOURNAL_INTERVAL) {
+					partialDownload.received(readCount);
+					journaledCount = readCount;
+				}
+				long length = expectedLength > readCount ? expectedLength : readCount;
+				int percent = (int) (readCount * READ_COUNT_MULTIPLIER / Math.max(length, 1));
+				if (percent != lastPercent) {
+					progress.progress(progressLabel, percent);
+					lastPercent = percent;
+				}
+				long wait = limiter.reserve(received);
+				if (wait > 0) {
+					// bandwidth limit, ask for more later instead of blocking the client thread
+					CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(() -> subscription.request(1));
+				} else {
+					subscription.request(1);
+				}
+			} catch (IOException iox) {
+				subscription.cancel();
+				onError(iox);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			try {
+				// what we got so far can be resumed
+				partialDownload.received(readCount);
+			} catch (IOException iox) {
+				throwable.addSuppressed(iox);
+			}
+			result.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			try {
+				partialDownload.received(readCount);
+				if (expectedLength != -1 && readCount < expectedLength) {
+					throw new TransientDownloadException("download of " + url + " ended after " + readCount + " of " + expectedLength + " bytes");
+				}
+				if (digest.isPresent()) {
+					verify(url, expectedSha256.get(), digest.get(), partialDownload);
+				}
+				result.complete(readCount - offset);
+			} catch (IOException iox) {
+				result.completeExceptionally(iox);
+			}
+		}
+
+		@Override
+		public CompletionStage<Long> getBody() {
+			return result;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+
+public class ExtractedFileSetsTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void everyCopyStrategyShouldGiveTheSameContent() throws IOException {
+		File baseDir = tempFolder.newFolder();
+		Files.write(new File(baseDir, "exe").toPath(), "executable".getBytes());
+		new File(baseDir, "lib").mkdirs();
+		Files.write(new File(baseDir, "lib/library.txt").toPath(), "library".getBytes());
+
+		ExtractedFileSet src = ExtractedFileSet.builder(baseDir)
+				.baseDirIsGenerated(false)
+				.executable(new File("exe"))
+				.addLibraryFiles(new File("lib/library.txt"))
+				.build();
+
+		for (CopyStrategy copyStrategy : CopyStrategy.values()) {
+			ExtractedFileSet copy = ExtractedFileSets.copy(src, new TempDir(tempFolder), new NoopTempNaming(), copyStrategy);
+
+			assertArrayEquals(copyStrategy.name(), "executable".getBytes(), Files.readAllBytes(copy.executable().toPath()));
+			assertEquals(1, copy.libraryFiles().size());
+			assertArrayEquals(copyStrategy.name(), "library".getBytes(), Files.readAllBytes(copy.libraryFiles().iterator().next().toPath()));
+			assertLinked(copyStrategy, new File(baseDir, "exe"), copy.executable());
+			assertLinked(copyStrategy, new File(baseDir, "lib/library.txt"), copy.libraryFiles().iterator().next());
+
+			ExtractedFileSets.delete(copy);
+			assertTrue(copyStrategy.name(), new File(baseDir, "exe").isFile());
+			assertTrue(copyStrategy.name(), new File(baseDir, "lib/library.txt").isFile());
+		}
+	}
+
+	/**
+	 * links only if the file system supports them, a copy is the documented fallback
+	 */
+	private void assertLinked(CopyStrategy copyStrategy, File source, File copy) throws IOException {
+		if (copyStrategy == CopyStrategy.HARDLINK && supportsHardlinks()) {
+			assertTrue(copy + " is a hardlink", Files.isSameFile(source.toPath(), copy.toPath()));
+		}
+		if (copyStrategy == CopyStrategy.SYMLINK && supportsSymlinks()) {
+			assertTrue(copy + " is a symlink", Files.isSymbolicLink(copy.toPath()));
+			assertTrue(copy + " points to " + source, Files.isSameFile(source.toPath(), copy.toPath()));
+		}
+	}
+
+	private boolean supportsHardlinks() throws IOException {
+		File probe = new File(tempFolder.newFolder(), "probe");
+		Files.write(probe.toPath(), new byte[0]);
+		try {
+			Files.createLink(new File(probe.getParentFile(), "hardlink").toPath(), probe.toPath());
+			return true;
+		} catch (UnsupportedOperationException | IOException iox) {
+			return false;
+		}
+	}
+
+	private boolean supportsSymlinks() throws IOException {
+		File probe = new File(tempFolder.newFolder(), "probe");
+		try {
+			Files.createSymbolicLink(new File(probe.getParentFile(), "symlink").toPath(), probe.toPath());
+			return true;
+		} catch (UnsupportedOperationException | IOException iox) {
+			return false;
+		}
+	}
+}
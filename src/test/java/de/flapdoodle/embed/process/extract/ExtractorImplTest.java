@@ -24,11 +24,38 @@
 package de.flapdoodle.embed.process.extract;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -87,9 +114,117 @@ public class ExtractorImplTest {
         assertEquals(new String(Files.readAllBytes(fileInArchive.toPath())), new String(Files.readAllBytes(extracted.executable().toPath())));
     }
 
+    @Test
+    public void testZipFormatWithConcurrentWrites() throws IOException {
+        File source = folder.newFile("many.zip");
+        FileSet.Builder fileSet = FileSet.builder().addEntry(FileType.Executable, "bin/exe");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(source))) {
+            zip.putNextEntry(new ZipEntry("bin/exe"));
+            zip.write("exe".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 20; i++) {
+                fileSet.addEntry(FileType.Library, "lib/lib" + i + ".dll");
+                zip.putNextEntry(new ZipEntry("lib/lib" + i + ".dll"));
+                zip.write(("lib" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        ExtractedFileSet extracted = new ZipExtractor(4).extract(runtime, source, new FilesToExtract(new TempDir(folder), new UUIDTempNaming(), fileSet.build()));
+
+        assertEquals("exe", new String(Files.readAllBytes(extracted.executable().toPath()), StandardCharsets.UTF_8));
+        assertEquals(20, extracted.libraryFiles().size());
+        for (File library : extracted.libraryFiles()) {
+            String name = library.getName();
+            assertEquals(name.substring(0, name.length() - ".dll".length()), new String(Files.readAllBytes(library.toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void interruptedConcurrentExtractionShouldRemoveFilesWrittenByCancelledWorkers() throws Exception {
+        TempDir baseDir = new TempDir(folder);
+        FileSet fileSet = FileSet.builder()
+                .addEntry(FileType.Executable, "bin/exe")
+                .addEntry(FileType.Library, "lib/lib.dll")
+                .build();
+        List<ArchiveEntry> entries = new ArrayList<>(Arrays.asList(new TarArchiveEntry("bin/exe"), new TarArchiveEntry("lib/lib.dll")));
+        for (ArchiveEntry entry : entries) {
+            ((TarArchiveEntry) entry).setSize(3);
+        }
+
+        AbstractExtractor extractor = new AbstractExtractor() {
+            @Override
+            protected int parallelism() {
+                return 2;
+            }
+
+            @Override
+            protected ArchiveWrapper archiveStream(File source) {
+                Iterator<ArchiveEntry> iterator = entries.iterator();
+                return new ArchiveWrapper() {
+                    @Override
+                    public ArchiveEntry getNextEntry() {
+                        return iterator.hasNext() ? iterator.next() : null;
+                    }
+
+                    @Override
+                    public InputStream asStream(ArchiveEntry entry) {
+                        return new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)) {
+                            @Override
+                            public synchronized int read(byte[] b, int off, int len) {
+                                sleepUninterruptibly(500);
+                                return super.read(b, off, len);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+
+                    @Override
+                    public boolean canReadEntryData(ArchiveEntry entry) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean supportsConcurrentReads() {
+                        return true;
+                    }
+                };
+            }
+        };
+
+        Thread extracting = Thread.currentThread();
+        CompletableFuture.runAsync(() -> {
+            sleepUninterruptibly(100);
+            extracting.interrupt();
+        });
+        try {
+            extractor.extract(runtime, new File("unused"), new FilesToExtract(baseDir, new UUIDTempNaming(), fileSet));
+            fail("should not reach this");
+        } catch (InterruptedIOException expected) {
+            assertTrue(Thread.interrupted());
+        }
+
+        try (Stream<Path> files = Files.walk(baseDir.asFile().toPath())) {
+            assertEquals(Collections.emptyList(), files.filter(Files::isRegularFile).collect(Collectors.toList()));
+        }
+    }
+
+    private static void sleepUninterruptibly(long millis) {
+        long until = System.currentTimeMillis() + millis;
+        long left;
+        while ((left = until - System.currentTimeMillis()) > 0) {
+            try {
+                Thread.sleep(left);
+            } catch (InterruptedException ignored) {
+                // keep on writing, like a worker blocked in native io
+            }
+        }
+    }
+
     @Test
     public void testTgzFormat() throws IOException {
-        File source = new File(this.getClass().getResource("/archives/sample.tgz").getPath());
+        File source = copyOfResource("/archives/sample.tgz");
         TgzExtractor extractor = new TgzExtractor();
 
         ExtractedFileSet extracted = extractor.extract(runtime, source, fte);
@@ -98,9 +233,178 @@ public class ExtractorImplTest {
         assertEquals(new String(Files.readAllBytes(fileInArchive.toPath())), new String(Files.readAllBytes(extracted.executable().toPath())));
     }
 
+    @Test
+    public void testTgzFormatWithIndex() throws IOException {
+        File source = folder.newFile("indexed.tgz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(source)))) {
+            for (String name : new String[] { "first.txt", "bin/exe", "lib/last.txt" }) {
+                byte[] content = ("content of " + name).getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        TgzExtractor extractor = new TgzExtractor();
+
+        // stops after the executable, indexes what it has read so far
+        ExtractedFileSet first = extractor.extract(runtime, source, filesToExtract(FileSet.builder()
+                .addEntry(FileType.Executable, "bin/exe")
+                .build()));
+        assertEquals("content of bin/exe", new String(Files.readAllBytes(first.executable().toPath()), StandardCharsets.UTF_8));
+        assertEquals(2, ArchiveIndex.read(source).get().entries().size());
+        assertFalse(ArchiveIndex.read(source).get().complete());
+
+        // indexed entries first, the rest from the archive
+        ExtractedFileSet second = extractor.extract(runtime, source, filesToExtract(FileSet.builder()
+                .addEntry(FileType.Executable, "bin/exe")
+                .addEntry(FileType.Library, "lib/last.txt")
+                .build()));
+        assertEquals("content of bin/exe", new String(Files.readAllBytes(second.executable().toPath()), StandardCharsets.UTF_8));
+        assertEquals("content of lib/last.txt", new String(Files.readAllBytes(second.libraryFiles().iterator().next().toPath()), StandardCharsets.UTF_8));
+        assertEquals(3, ArchiveIndex.read(source).get().entries().size());
+
+        // only from the index
+        ExtractedFileSet third = extractor.extract(runtime, source, filesToExtract(FileSet.builder()
+                .addEntry(FileType.Executable, "first.txt")
+                .addEntry(FileType.Library, "lib/last.txt")
+                .addEntry(FileType.Library, "missing.txt")
+                .build()));
+        assertEquals("content of first.txt", new String(Files.readAllBytes(third.executable().toPath()), StandardCharsets.UTF_8));
+        assertEquals("content of lib/last.txt", new String(Files.readAllBytes(third.libraryFiles().iterator().next().toPath()), StandardCharsets.UTF_8));
+        assertTrue(ArchiveIndex.read(source).get().complete());
+
+        // same content, but touched or copied
+        assertTrue(source.setLastModified(source.lastModified() - 10000));
+        assertTrue(ArchiveIndex.read(source).isPresent());
+
+        // archive changed, index is ignored
+        Files.write(source.toPath(), new byte[] { 0 }, StandardOpenOption.APPEND);
+        assertFalse(ArchiveIndex.read(source).isPresent());
+    }
+
+    @Test
+    public void testTgzFormatWithBrokenIndexReadsSequentially() throws IOException {
+        File source = folder.newFile("broken.tgz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(source)))) {
+            for (String name : new String[] { "first.txt", "bin/exe" }) {
+                byte[] content = ("content of " + name).getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(name);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+        }
+        TgzExtractor extractor = new TgzExtractor();
+        FileSet fileSet = FileSet.builder().addEntry(FileType.Executable, "bin/exe").build();
+        extractor.extract(runtime, source, filesToExtract(fileSet));
+
+        // offset of bin/exe beyond the end of the archive
+        Path indexFile = ArchiveIndex.indexFileOf(source).toPath();
+        List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        String[] header = lines.get(0).split(" ");
+        lines.set(0, header[0] + " " + header[1] + " " + header[2] + " 1000000000 " + header[4]);
+        lines.set(2, "999999488 " + lines.get(2).split(" ", 2)[1]);
+        Files.write(indexFile, lines, StandardCharsets.UTF_8);
+
+        ExtractedFileSet extracted = extractor.extract(runtime, source, filesToExtract(fileSet));
+        assertEquals("content of bin/exe", new String(Files.readAllBytes(extracted.executable().toPath()), StandardCharsets.UTF_8));
+        ArchiveIndex rebuilt = ArchiveIndex.read(source).get();
+        assertEquals(2, rebuilt.entries().size());
+        assertEquals(512 + 512 + 512, rebuilt.entries().get(1).dataOffset);
+    }
+
+    @Test
+    public void testTgzFormatWithIndexSkipsUnmatchedEntries() throws IOException {
+        File source = folder.newFile("unmatched.tgz");
+        byte[] unmatched = new byte[3000];
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(new FileOutputStream(source)))) {
+            TarArchiveEntry first = new TarArchiveEntry("unmatched.bin");
+            first.setSize(unmatched.length);
+            tar.putArchiveEntry(first);
+            tar.write(unmatched);
+            tar.closeArchiveEntry();
+            byte[] content = "content of bin/exe".getBytes(StandardCharsets.UTF_8);
+            TarArchiveEntry exe = new TarArchiveEntry("bin/exe");
+            exe.setSize(content.length);
+            tar.putArchiveEntry(exe);
+            tar.write(content);
+            tar.closeArchiveEntry();
+        }
+        TgzExtractor extractor = new TgzExtractor();
+        FileSet fileSet = FileSet.builder().addEntry(FileType.Executable, "bin/exe").build();
+
+        // unmatched entry is skipped, not read
+        ExtractedFileSet first = extractor.extract(runtime, source, filesToExtract(fileSet));
+        assertEquals("content of bin/exe", new String(Files.readAllBytes(first.executable().toPath()), StandardCharsets.UTF_8));
+        ArchiveIndex index = ArchiveIndex.read(source).get();
+        assertEquals(2, index.entries().size());
+        assertEquals(512, index.entries().get(0).dataOffset);
+        assertEquals(512 + 3072 + 512, index.entries().get(1).dataOffset);
+
+        ExtractedFileSet second = extractor.extract(runtime, source, filesToExtract(fileSet));
+        assertEquals("content of bin/exe", new String(Files.readAllBytes(second.executable().toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTzstFormat() throws IOException {
+        File source = folder.newFile("sample.tar.zst");
+        writeTar(new ZstdCompressorOutputStream(new FileOutputStream(source)));
+
+        ExtractedFileSet extracted = new TzstExtractor().extract(runtime, source, fte);
+
+        assertEquals(new String(Files.readAllBytes(fileInArchive.toPath())), new String(Files.readAllBytes(extracted.executable().toPath())));
+    }
+
+    @Test
+    public void testTzstFormatWithoutZstdJni() throws IOException {
+        File source = folder.newFile("missing-codec.tar.zst");
+        writeTar(new ZstdCompressorOutputStream(new FileOutputStream(source)));
+
+        try {
+            new TzstExtractor(() -> false).extract(runtime, source, fte);
+            fail("should not be reached");
+        } catch (IOException iox) {
+            assertTrue(iox.getMessage(), iox.getMessage().contains("com.github.luben:zstd-jni"));
+        }
+    }
+
+    @Test
+    public void testTlz4Format() throws IOException {
+        File source = folder.newFile("sample.tar.lz4");
+        writeTar(new FramedLZ4CompressorOutputStream(new FileOutputStream(source)));
+
+        ExtractedFileSet extracted = new Tlz4Extractor().extract(runtime, source, fte);
+
+        assertEquals(new String(Files.readAllBytes(fileInArchive.toPath())), new String(Files.readAllBytes(extracted.executable().toPath())));
+    }
+
+    private void writeTar(OutputStream compressed) throws IOException {
+        byte[] content = Files.readAllBytes(fileInArchive.toPath());
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(compressed)) {
+            TarArchiveEntry entry = new TarArchiveEntry("readme.txt");
+            entry.setSize(content.length);
+            tar.putArchiveEntry(entry);
+            tar.write(content);
+            tar.closeArchiveEntry();
+        }
+    }
+
+    private File copyOfResource(String resource) throws IOException {
+        File copy = new File(folder.getRoot(), resource.substring(resource.lastIndexOf('/') + 1));
+        Files.copy(this.getClass().getResourceAsStream(resource), copy.toPath());
+        return copy;
+    }
+
+    private FilesToExtract filesToExtract(FileSet fileSet) throws IOException {
+        return new FilesToExtract(new TempDir(folder), new UUIDTempNaming(), fileSet);
+    }
+
     @Test
     public void testTbz2Format() throws IOException {
-        File source = new File(this.getClass().getResource("/archives/sample.tbz2").getPath());
+        File source = copyOfResource("/archives/sample.tbz2");
         Tbz2Extractor extractor = new Tbz2Extractor();
 
         ExtractedFileSet extracted = extractor.extract(runtime, source, fte);
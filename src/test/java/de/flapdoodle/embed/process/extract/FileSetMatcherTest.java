@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+
+public class FileSetMatcherTest {
+
+	@Test
+	public void literalSuffixShouldOnlyContainCharactersEveryMatchEndsWith() {
+		assertEquals("mongod", FileSetMatcher.literalSuffix(Pattern.compile(".*mongod")));
+		assertEquals("exe", FileSetMatcher.literalSuffix(Pattern.compile(".*\\.exe$")));
+		assertEquals("/lib", FileSetMatcher.literalSuffix(Pattern.compile("bin[0-9]/lib")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("lib\\d")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("lib\\x41")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("lib\\u0041")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("lib\\0101")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("lib\\tmongod")));
+		assertEquals("mongod", FileSetMatcher.literalSuffix(Pattern.compile("bin\\\\mongod")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("libs?")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("mongod|mongos")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile("(?i)mongod")));
+		assertEquals("", FileSetMatcher.literalSuffix(Pattern.compile(".*mongod", Pattern.COMMENTS)));
+	}
+
+	@Test
+	public void firstRemainingEntryInFileSetOrderShouldMatch() {
+		FileSet fileSet = FileSet.builder()
+				.addEntry(FileType.Executable, "mongod")
+				.addEntry(FileType.Library, "lib", "lib\\d")
+				.addEntry(FileType.Library, "any", ".*")
+				.build();
+		FileSetMatcher matcher = new FileSetMatcher(fileSet.entries());
+		FileSet.Entry mongod = fileSet.entries().get(0);
+		FileSet.Entry lib = fileSet.entries().get(1);
+		FileSet.Entry any = fileSet.entries().get(2);
+
+		assertEquals(Optional.of(mongod), matcher.find("bin/MONGOD", entry -> true));
+		assertEquals(Optional.of(any), matcher.find("bin/MONGOD", entry -> entry != mongod));
+		assertEquals(Optional.of(lib), matcher.find("lib1", entry -> true));
+		assertEquals(Optional.of(any), matcher.find("bin/mongos", entry -> true));
+		assertFalse(matcher.find("bin/mongos", entry -> entry != any).isPresent());
+	}
+}
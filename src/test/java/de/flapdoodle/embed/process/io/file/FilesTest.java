@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.io.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FilesTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final byte[] content = content(3 * 1024 * 1024 + 17);
+
+	@Test
+	public void writeShouldCopyAtMostSizeBytes() throws IOException {
+		File output = tempFolder.newFile();
+
+		Files.write(new ByteArrayInputStream(content), content.length - 100, output);
+
+		assertArrayEquals(Arrays.copyOf(content, content.length - 100), java.nio.file.Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void writeShouldTransferFromFileStreams() throws IOException {
+		File source = tempFolder.newFile();
+		java.nio.file.Files.write(source.toPath(), content);
+		File output = tempFolder.newFile();
+
+		try (InputStream in = new FileInputStream(source)) {
+			Files.write(in, content.length, output);
+		}
+
+		assertArrayEquals(content, java.nio.file.Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void preallocatedFileShouldBeTruncatedIfStreamIsShorter() throws IOException {
+		File output = tempFolder.newFile();
+
+		Files.write(new ByteArrayInputStream(content), content.length + 1024 * 1024, output);
+
+		assertEquals(content.length, output.length());
+		assertArrayEquals(content, java.nio.file.Files.readAllBytes(output.toPath()));
+	}
+
+	private static byte[] content(int size) {
+		byte[] content = new byte[size];
+		new Random(1).nextBytes(content);
+		return content;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.io.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * compares Files.write with the former 16k heap buffer loop, a local file stands in for the archive entry
+ * ('stream' hides the file channel like a decompressing stream does, 'channel' does not)
+ *
+ * run with main()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilesWriteBenchmark {
+
+	private static final int SIZE = 128 * 1024 * 1024;
+
+	@Param({"stream", "channel"})
+	public String source;
+
+	private File entry;
+	private File destination;
+
+	@Setup(Level.Trial)
+	public void createEntryFile() throws IOException {
+		entry = File.createTempFile("entry", ".bin");
+		destination = File.createTempFile("extracted", ".bin");
+		byte[] chunk = new byte[1024 * 1024];
+		Random random = new Random(1);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(entry))) {
+			for (int i = 0; i < SIZE / chunk.length; i++) {
+				random.nextBytes(chunk);
+				out.write(chunk);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFiles() {
+		entry.delete();
+		destination.delete();
+	}
+
+	@Benchmark
+	public void heapBufferLoop() throws IOException {
+		try (InputStream in = source()) {
+			heapBufferLoop(in, SIZE, destination);
+		}
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		try (InputStream in = source()) {
+			Files.write(in, SIZE, destination);
+		}
+	}
+
+	private InputStream source() throws IOException {
+		FileInputStream in = new FileInputStream(entry);
+		return "stream".equals(source) ? new FilterInputStream(in) {} : in;
+	}
+
+	/**
+	 * Files.write before the nio write path
+	 */
+	private static void heapBufferLoop(final InputStream in, long size, final File output) throws IOException {
+		try (final OutputStream out = java.nio.file.Files.newOutputStream(output.toPath())) {
+			final byte[] buf = new byte[1024 * 16];
+			int read;
+			int left = buf.length;
+			if (left > size) {
+				left = (int) size;
+			}
+			while ((read = in.read(buf, 0, left)) > 0) {
+				out.write(buf, 0, read);
+				size = size - read;
+				if (left > size)
+					left = (int) size;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(FilesWriteBenchmark.class.getSimpleName())
+				.build())
+				.run();
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.io.progress;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ThrottlingProgressListenerTest {
+
+	private final AtomicLong now = new AtomicLong();
+	private final RecordingProgressListener recorded = new RecordingProgressListener();
+	private final ThrottlingProgressListener listener = new ThrottlingProgressListener(recorded, 100, 5, now::get);
+
+	@Test
+	public void progressShouldBeForwardedEveryFivePercentOrHundredMillis() {
+		listener.start("download");
+		for (int percent = 0; percent <= 100; percent++) {
+			listener.progress("download", percent);
+			listener.progress("download", percent);
+		}
+		listener.progress("download", 100);
+		advance(50);
+		listener.progress("download", 100);
+		advance(60);
+		listener.progress("download", 100);
+		listener.done("download");
+
+		assertEquals(Arrays.asList("start download",
+				"download 0", "download 5", "download 10", "download 15", "download 20", "download 25",
+				"download 30", "download 35", "download 40", "download 45", "download 50", "download 55",
+				"download 60", "download 65", "download 70", "download 75", "download 80", "download 85",
+				"download 90", "download 95", "download 100",
+				"download 100",
+				"done download"), recorded.calls);
+	}
+
+	@Test
+	public void infoShouldBeCoalesced() {
+		listener.info("download", "queued for 1ms");
+		listener.info("download", "queued for 2ms");
+		listener.info("download", "queued for 3ms");
+		advance(100);
+		listener.info("download", "queued for 104ms");
+		listener.info("download", "queued for 105ms");
+		listener.info("extract", "foo");
+		listener.start("download");
+
+		assertEquals(Arrays.asList(
+				"download queued for 1ms",
+				"download queued for 3ms",
+				"download queued for 104ms",
+				"extract foo",
+				"download queued for 105ms",
+				"start download"), recorded.calls);
+	}
+
+	@Test
+	public void interleavedLabelsShouldBeThrottledIndependently() {
+		listener.start("first");
+		listener.start("second");
+		for (int percent = 0; percent <= 10; percent++) {
+			listener.progress("first", percent);
+			listener.info("first", "at " + percent);
+			listener.progress("second", percent);
+			listener.info("second", "at " + percent);
+		}
+		listener.done("first");
+		listener.done("second");
+
+		assertEquals(Arrays.asList("start first", "start second",
+				"first 0", "first at 0", "second 0", "second at 0",
+				"first 5", "second 5",
+				"first 10", "second 10",
+				"first at 10", "done first",
+				"second at 10", "done second"), recorded.calls);
+	}
+
+	@Test
+	public void labelsWithoutDoneShouldNotBeKeptForever() {
+		for (int i = 0; i <= ThrottlingProgressListener.MAX_LABELS; i++) {
+			listener.info("download " + i, "first");
+			listener.info("download " + i, "failed");
+		}
+
+		// the oldest label is dropped when the next one comes in, its pending info is flushed
+		assertEquals("download 0 failed", recorded.calls.get(ThrottlingProgressListener.MAX_LABELS));
+		assertEquals(ThrottlingProgressListener.MAX_LABELS + 2, recorded.calls.size());
+	}
+
+	private void advance(long millis) {
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	static class RecordingProgressListener implements ProgressListener {
+
+		final List<String> calls = new ArrayList<>();
+
+		@Override
+		public void progress(String label, int percent) {
+			calls.add(label + " " + percent);
+		}
+
+		@Override
+		public void done(String label) {
+			calls.add("done " + label);
+		}
+
+		@Override
+		public void start(String label) {
+			calls.add("start " + label);
+		}
+
+		@Override
+		public void info(String label, String message) {
+			calls.add(label + " " + message);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.flapdoodle.embed.process.config.ExecutableProcessConfig;
+import de.flapdoodle.embed.process.config.RuntimeConfig;
+import de.flapdoodle.embed.process.config.SupportConfig;
+import de.flapdoodle.embed.process.config.process.ProcessOutput;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.exceptions.DistributionException;
+import de.flapdoodle.embed.process.extract.ExtractedFileSet;
+import de.flapdoodle.embed.process.store.IArtifactStore;
+
+public class StarterTest {
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+	private final ExtractedFileSet files = ExtractedFileSet.builder(new File("base"))
+			.baseDirIsGenerated(false)
+			.executable(new File("exe"))
+			.build();
+
+	@After
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void prepareAsyncShouldExtractOnExecutor() throws InterruptedException, ExecutionException {
+		TestStarter starter = new TestStarter(runtimeConfig(distribution -> {
+			assertTrue(Thread.currentThread().getName().startsWith("pool-"));
+			return Optional.of(files);
+		}));
+
+		TestExecutable executable = starter.prepareAsync(new TestConfig(), distribution, executor).get();
+
+		assertSame(files, executable.getFile());
+	}
+
+	@Test
+	public void prepareAsyncShouldMapIOExceptionToDistributionException() throws InterruptedException {
+		IOException failure = new IOException("extraction failed");
+		TestStarter starter = new TestStarter(runtimeConfig(distribution -> {
+			throw failure;
+		}));
+
+		try {
+			starter.prepareAsync(new TestConfig(), distribution, executor).get();
+			fail("should not be reached");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof DistributionException);
+			assertEquals(distribution, ((DistributionException) ex.getCause()).withDistribution());
+			assertSame(failure, ex.getCause().getCause());
+		}
+	}
+
+	@Test
+	public void prepareAsyncShouldFailWithoutFiles() throws InterruptedException {
+		TestStarter starter = new TestStarter(runtimeConfig(distribution -> Optional.empty()));
+
+		try {
+			starter.prepareAsync(new TestConfig(), distribution, executor).get();
+			fail("should not be reached");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof DistributionException);
+		}
+	}
+
+	@Test
+	public void startAsyncShouldStartOnExecutor() throws InterruptedException, ExecutionException {
+		TestExecutable executable = new TestStarter(runtimeConfig(distribution -> Optional.of(files))).prepare(new TestConfig(), distribution);
+
+		TestProcess process = executable.startAsync(executor).get();
+
+		assertTrue(process.startedBy.startsWith("pool-"));
+		executable.stop();
+		assertTrue(process.stopped);
+	}
+
+	@Test
+	public void startAsyncShouldCompleteExceptionallyWithIOException() throws InterruptedException {
+		IOException failure = new IOException("start failed");
+		TestExecutable executable = new TestStarter(runtimeConfig(distribution -> Optional.of(files))).prepare(new TestConfig(), distribution);
+		executable.failWith = failure;
+
+		try {
+			executable.startAsync(executor).get();
+			fail("should not be reached");
+		} catch (ExecutionException ex) {
+			assertSame(failure, ex.getCause());
+		}
+	}
+
+	private static RuntimeConfig runtimeConfig(Extraction extraction) {
+		return RuntimeConfig.builder()
+				.processOutput(ProcessOutput.silent())
+				.artifactStore(new IArtifactStore() {
+					@Override
+					public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+						return extraction.extract(distribution);
+					}
+
+					@Override
+					public void removeFileSet(Distribution distribution, ExtractedFileSet files) {
+						// nothing extracted
+					}
+				})
+				.build();
+	}
+
+	interface Extraction {
+		Optional<ExtractedFileSet> extract(Distribution distribution) throws IOException;
+	}
+
+	static class TestConfig implements ExecutableProcessConfig {
+
+		@Override
+		public Version version() {
+			return Version.of("1.0.37");
+		}
+
+		@Override
+		public SupportConfig supportConfig() {
+			return SupportConfig.generic();
+		}
+
+		@Override
+		public OptionalLong stopTimeoutInMillis() {
+			return OptionalLong.empty();
+		}
+	}
+
+	static class TestStarter extends Starter<TestConfig, TestExecutable, TestProcess> {
+
+		TestStarter(RuntimeConfig config) {
+			super(config);
+		}
+
+		@Override
+		protected TestExecutable newExecutable(TestConfig config, Distribution distribution, RuntimeConfig runtime, ExtractedFileSet exe) {
+			return new TestExecutable(distribution, config, runtime, exe);
+		}
+	}
+
+	static class TestExecutable extends Executable<TestConfig, TestProcess> {
+
+		IOException failWith;
+
+		TestExecutable(Distribution distribution, TestConfig config, RuntimeConfig runtimeConfig, ExtractedFileSet executable) {
+			super(distribution, config, runtimeConfig, executable);
+		}
+
+		@Override
+		protected TestProcess start(Distribution distribution, TestConfig config, RuntimeConfig runtime) throws IOException {
+			if (failWith != null) {
+				throw failWith;
+			}
+			return new TestProcess(Thread.currentThread().getName());
+		}
+	}
+
+	static class TestProcess implements IStopable {
+
+		final String startedBy;
+		volatile boolean stopped;
+
+		TestProcess(String startedBy) {
+			this.startedBy = startedBy;
+		}
+
+		@Override
+		public void stop() {
+			stopped = true;
+		}
+
+		@Override
+		public boolean isRegisteredJobKiller() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.config.store.RetryConfig;
+import de.flapdoodle.embed.process.distribution.ArchiveType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.DirectoryAndExecutableNaming;
+import de.flapdoodle.embed.process.extract.ExtractedFileSet;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.directories.Directory;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+
+public class ArtifactStoreTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void resumedDownloadShouldBeExtractedWhileDownloading() throws IOException {
+		byte[] executable = randomContent(1024 * 1024);
+		byte[] library = randomContent(1024);
+		byte[] archive = tgz(executable, library);
+		Directory artifactStore = new TempDir(tempFolder);
+		RecordingProgressListener progress = new RecordingProgressListener();
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.tgz", archive, true).breakResponses(1, 300 * 1024)) {
+			ArtifactStore store = ArtifactStore.builder()
+					.downloadConfig(downloadConfig(server.baseUrl(), artifactStore, progress))
+					.tempDirFactory(new TempDir(tempFolder))
+					.executableNaming(new UUIDTempNaming())
+					.downloader(new UrlConnectionDownloader())
+					.extractWhileDownloading(true)
+					.build();
+
+			ExtractedFileSet extracted = store.extractFileSet(Distribution.detectFor(Version.of("1.0.37"))).get();
+
+			assertArrayEquals(executable, Files.readAllBytes(extracted.baseDir().toPath().resolve(extracted.executable().toPath())));
+			assertEquals(1, extracted.libraryFiles().size());
+			assertArrayEquals(library, Files.readAllBytes(extracted.libraryFiles().iterator().next().toPath()));
+			assertArrayEquals(archive, Files.readAllBytes(new File(artifactStore.asFile(), "archive.tgz").toPath()));
+			assertEquals(1, server.rangeRequests());
+
+			List<String> extractions = progress.started.stream()
+					.filter(label -> label.startsWith("Extract"))
+					.collect(Collectors.toList());
+			assertEquals(1, extractions.size());
+			assertTrue(extractions.get(0).endsWith("while downloading"));
+		}
+	}
+
+	@Test
+	public void archiveFromSharedDirectoryShouldBePromotedWithoutDownload() throws IOException {
+		byte[] executable = randomContent(1024);
+		byte[] library = randomContent(512);
+		byte[] archive = tgz(executable, library);
+		File sharedEmpty = tempFolder.newFolder("shared-empty");
+		File shared = tempFolder.newFolder("shared");
+		Files.write(new File(shared, "archive.tgz").toPath(), archive);
+		Directory artifactStore = new TempDir(tempFolder);
+
+		TieredArtifactStore store = TieredArtifactStore.of(ArtifactStore.builder()
+				.downloadConfig(downloadConfig("http://localhost:1/not-there/", artifactStore, new RecordingProgressListener()))
+				.tempDirFactory(new TempDir(tempFolder))
+				.executableNaming(new UUIDTempNaming())
+				.downloader(new UrlConnectionDownloader())
+				.build(), sharedEmpty, shared);
+
+		Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+		ExtractedFileSet first = store.extractFileSet(distribution).get();
+		store.removeFileSet(distribution, first);
+		ExtractedFileSet second = store.extractFileSet(distribution).get();
+
+		assertArrayEquals(executable, Files.readAllBytes(second.baseDir().toPath().resolve(second.executable().toPath())));
+		assertArrayEquals(archive, Files.readAllBytes(new File(artifactStore.asFile(), "archive.tgz").toPath()));
+		assertTrue(new File(shared, "archive.tgz").isFile());
+		assertEquals(Arrays.asList(
+				TierStatistics.of(TieredArtifactStore.LOCAL, 1, 1),
+				TierStatistics.of(sharedEmpty.getAbsolutePath(), 0, 1),
+				TierStatistics.of(shared.getAbsolutePath(), 1, 0),
+				TierStatistics.of(TieredArtifactStore.REMOTE, 0, 0)), store.statistics());
+	}
+
+	@Test
+	public void archiveFromSharedDirectoryWithWrongChecksumShouldBeSkipped() throws IOException {
+		byte[] archive = tgz(randomContent(1024), randomContent(512));
+		File sharedCorrupt = tempFolder.newFolder("shared-corrupt");
+		File shared = tempFolder.newFolder("shared");
+		Files.write(new File(sharedCorrupt, "archive.tgz").toPath(), Arrays.copyOf(archive, archive.length - 1));
+		Files.write(new File(shared, "archive.tgz").toPath(), archive);
+		Directory artifactStore = new TempDir(tempFolder);
+
+		TieredArtifactStore store = TieredArtifactStore.of(ArtifactStore.builder()
+				.downloadConfig(downloadConfig("http://localhost:1/not-there/", artifactStore, new RecordingProgressListener(),
+						Optional.of(Checksum.hex(Checksum.sha256().digest(archive)))))
+				.tempDirFactory(new TempDir(tempFolder))
+				.executableNaming(new UUIDTempNaming())
+				.downloader(new UrlConnectionDownloader())
+				.build(), sharedCorrupt, shared);
+
+		store.extractFileSet(Distribution.detectFor(Version.of("1.0.37"))).get();
+
+		assertArrayEquals(archive, Files.readAllBytes(new File(artifactStore.asFile(), "archive.tgz").toPath()));
+		assertEquals(Arrays.asList(
+				TierStatistics.of(TieredArtifactStore.LOCAL, 0, 1),
+				TierStatistics.of(sharedCorrupt.getAbsolutePath(), 0, 1),
+				TierStatistics.of(shared.getAbsolutePath(), 1, 0),
+				TierStatistics.of(TieredArtifactStore.REMOTE, 0, 0)), store.statistics());
+	}
+
+	@Test
+	public void completeExtractionShouldNotPromoteTheArchiveAgain() throws IOException {
+		File shared = tempFolder.newFolder("shared");
+		Files.write(new File(shared, "archive.tgz").toPath(), tgz(randomContent(1024), randomContent(512)));
+		Directory artifactStore = new TempDir(tempFolder);
+
+		TieredArtifactStore store = TieredArtifactStore.of(ExtractedArtifactStore.builder()
+				.downloadConfig(downloadConfig("http://localhost:1/not-there/", artifactStore, new RecordingProgressListener()))
+				.downloader(new UrlConnectionDownloader())
+				.extraction(DirectoryAndExecutableNaming.builder()
+						.directory(new TempDir(tempFolder))
+						.executableNaming(new UUIDTempNaming())
+						.build())
+				.temp(DirectoryAndExecutableNaming.builder()
+						.directory(new TempDir(tempFolder))
+						.executableNaming(new UUIDTempNaming())
+						.build())
+				.build(), shared);
+
+		Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+		store.extractFileSet(distribution).get();
+		File promoted = new File(artifactStore.asFile(), "archive.tgz");
+		assertTrue(promoted.delete());
+		ExtractedFileSet second = store.extractFileSet(distribution).get();
+
+		assertTrue(second.executable().isFile());
+		assertFalse(promoted.exists());
+		assertEquals(Arrays.asList(
+				TierStatistics.of(TieredArtifactStore.LOCAL, 1, 1),
+				TierStatistics.of(shared.getAbsolutePath(), 1, 0),
+				TierStatistics.of(TieredArtifactStore.REMOTE, 0, 0)), store.statistics());
+	}
+
+	private static byte[] tgz(byte[] executable, byte[] library) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(out))) {
+			add(tar, "dist/bin/my-prog", executable);
+			add(tar, "dist/lib/my-lib.txt", library);
+		}
+		return out.toByteArray();
+	}
+
+	private static void add(TarArchiveOutputStream tar, String name, byte[] content) throws IOException {
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		tar.putArchiveEntry(entry);
+		tar.write(content);
+		tar.closeArchiveEntry();
+	}
+
+	private static byte[] randomContent(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	private static DownloadConfig downloadConfig(String baseUrl, Directory artifactStore, ProgressListener progress) {
+		return downloadConfig(baseUrl, artifactStore, progress, Optional.empty());
+	}
+
+	private static DownloadConfig downloadConfig(String baseUrl, Directory artifactStore, ProgressListener progress,
+			Optional<String> expectedSha256) {
+		return DownloadConfig.builder()
+				.downloadPrefix("prefix")
+				.downloadPath(__ -> baseUrl)
+				.packageResolver(__ -> DistributionPackage.builder()
+						.archiveType(ArchiveType.TGZ)
+						.fileSet(FileSet.builder()
+								.addEntry(FileType.Executable, "my-prog")
+								.addEntry(FileType.Library, "lib/my-lib.txt", ".*my-lib.txt")
+								.build())
+						.archivePath("archive.tgz")
+						.expectedSha256(expectedSha256)
+						.build())
+				.artifactStorePath(artifactStore)
+				.fileNaming(new UUIDTempNaming())
+				.progressListener(progress)
+				.userAgent("foo-bar")
+				.retryConfig(RetryConfig.builder()
+						.maxRetries(2)
+						.initialDelay(10)
+						.maxDelay(100)
+						.build())
+				.build();
+	}
+
+	static class RecordingProgressListener extends StandardConsoleProgressListener {
+
+		final List<String> started = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void start(String label) {
+			started.add(label);
+			super.start(label);
+		}
+	}
+}
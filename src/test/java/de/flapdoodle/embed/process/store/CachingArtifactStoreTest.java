@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.ExtractedFileSet;
+
+public class CachingArtifactStoreTest {
+
+	@Test
+	public void concurrentUsersShouldShareOneExtraction() throws Exception {
+		CountingStore delegate = new CountingStore();
+		CachingArtifactStore store = new CachingArtifactStore(delegate, CacheEvictionPolicy.builder()
+				.idleTime(0L)
+				.build());
+		Distribution distribution = distribution("1.0.37");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Optional<ExtractedFileSet>>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(() -> store.extractFileSet(distribution)));
+			}
+			ExtractedFileSet first = results.get(0).get(10, TimeUnit.SECONDS).get();
+			for (Future<Optional<ExtractedFileSet>> result : results) {
+				assertSame(first, result.get(10, TimeUnit.SECONDS).get());
+			}
+			assertEquals(1, delegate.extracted(distribution));
+
+			for (int i = 0; i < 7; i++) {
+				store.removeFileSet(distribution, first);
+			}
+			store.removeUnused();
+			assertEquals(0, delegate.removed.get());
+
+			store.removeFileSet(distribution, first);
+			store.removeUnused();
+			assertEquals(1, delegate.removed.get());
+
+			store.extractFileSet(distribution);
+			assertEquals(2, delegate.extracted(distribution));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void slowExtractionShouldNotBlockOtherDistributions() throws Exception {
+		Distribution slow = distribution("1.0.37");
+		Distribution fast = distribution("2.0.0");
+		CountDownLatch release = new CountDownLatch(1);
+		CountingStore delegate = new CountingStore() {
+			@Override
+			public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+				if (distribution.equals(slow)) {
+					try {
+						release.await();
+					} catch (InterruptedException ix) {
+						throw new IOException(ix);
+					}
+				}
+				return super.extractFileSet(distribution);
+			}
+		};
+		CachingArtifactStore store = new CachingArtifactStore(delegate, CacheEvictionPolicy.builder()
+				.idleTime(0L)
+				.build());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Optional<ExtractedFileSet>> slowResult = executor.submit(() -> store.extractFileSet(slow));
+
+			ExtractedFileSet fastFiles = store.extractFileSet(fast).get();
+			store.removeFileSet(fast, fastFiles);
+			store.removeUnused();
+			assertEquals(1, delegate.removed.get());
+			assertFalse(slowResult.isDone());
+
+			release.countDown();
+			assertTrue(slowResult.get(10, TimeUnit.SECONDS).isPresent());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void extractionInFlightShouldBeDeletedByRemoveAll() throws Exception {
+		Distribution distribution = distribution("1.0.37");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountingStore delegate = new CountingStore() {
+			@Override
+			public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ix) {
+					throw new IOException(ix);
+				}
+				return super.extractFileSet(distribution);
+			}
+		};
+		CachingArtifactStore store = new CachingArtifactStore(delegate);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Optional<ExtractedFileSet>> result = executor.submit(() -> store.extractFileSet(distribution));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			store.removeAll();
+			assertEquals(0, delegate.removed.get());
+
+			release.countDown();
+			assertTrue(result.get(10, TimeUnit.SECONDS).isPresent());
+			assertEquals(1, delegate.removed.get());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void failedExtractionShouldBeRetried() throws IOException {
+		AtomicInteger calls = new AtomicInteger();
+		CountingStore delegate = new CountingStore() {
+			@Override
+			public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+				if (calls.incrementAndGet() == 1) {
+					throw new IOException("failed");
+				}
+				return super.extractFileSet(distribution);
+			}
+		};
+		CachingArtifactStore store = new CachingArtifactStore(delegate);
+		Distribution distribution = distribution("1.0.37");
+		try {
+			store.extractFileSet(distribution);
+		} catch (IOException iox) {
+			assertEquals("failed", iox.getMessage());
+		}
+		assertTrue(store.extractFileSet(distribution).isPresent());
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void unusedEntriesShouldBeKeptForIdleTime() throws IOException {
+		CountingStore delegate = new CountingStore();
+		CachingArtifactStore store = new CachingArtifactStore(delegate, CacheEvictionPolicy.builder()
+				.idleTime(TimeUnit.HOURS.toMillis(1))
+				.sweepInterval(TimeUnit.HOURS.toMillis(1))
+				.build());
+		Distribution distribution = distribution("1.0.37");
+
+		store.removeFileSet(distribution, store.extractFileSet(distribution).get());
+		store.removeUnused();
+		assertEquals(0, delegate.removed.get());
+
+		store.removeFileSet(distribution, store.extractFileSet(distribution).get());
+		assertEquals(1, delegate.extracted(distribution));
+	}
+
+	@Test
+	public void unusedEntriesShouldBeKeptWithoutLimits() throws IOException {
+		CountingStore delegate = new CountingStore();
+		CachingArtifactStore store = new CachingArtifactStore(delegate, CacheEvictionPolicy.builder()
+				.sweepInterval(TimeUnit.HOURS.toMillis(1))
+				.build());
+		Distribution distribution = distribution("1.0.37");
+
+		store.removeFileSet(distribution, store.extractFileSet(distribution).get());
+		store.removeUnused();
+		assertEquals(0, delegate.removed.get());
+
+		store.removeFileSet(distribution, store.extractFileSet(distribution).get());
+		assertEquals(1, delegate.extracted(distribution));
+	}
+
+	@Test
+	public void leastRecentlyUsedEntriesShouldBeRemovedAboveMaxEntries() throws Exception {
+		CountingStore delegate = new CountingStore();
+		CachingArtifactStore store = new CachingArtifactStore(delegate, CacheEvictionPolicy.builder()
+				.maxEntries(2)
+				.sweepInterval(TimeUnit.HOURS.toMillis(1))
+				.build());
+		Distribution first = distribution("1.0.37");
+		Distribution second = distribution("2.0.0");
+		Distribution inUse = distribution("3.0.0");
+
+		store.extractFileSet(inUse);
+		store.removeFileSet(first, store.extractFileSet(first).get());
+		Thread.sleep(5);
+		store.removeFileSet(second, store.extractFileSet(second).get());
+		store.removeUnused();
+		// the entry in use counts, but is kept
+		assertEquals(1, delegate.removed.get());
+
+		store.extractFileSet(inUse);
+		assertEquals(1, delegate.extracted(inUse));
+		store.extractFileSet(second);
+		assertEquals(1, delegate.extracted(second));
+		store.extractFileSet(first);
+		assertEquals(2, delegate.extracted(first));
+	}
+
+	@Test
+	public void independentDistributionsShouldBeExtractedConcurrently() throws Exception {
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		CountingStore delegate = new CountingStore() {
+			@Override
+			public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+				bothStarted.countDown();
+				try {
+					if (!bothStarted.await(10, TimeUnit.SECONDS)) {
+						throw new IOException("not concurrent");
+					}
+				} catch (InterruptedException ix) {
+					throw new IOException(ix);
+				}
+				return super.extractFileSet(distribution);
+			}
+		};
+		CachingArtifactStore store = new CachingArtifactStore(delegate);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			CompletableFuture<Optional<ExtractedFileSet>> first = store.extractFileSetAsync(distribution("1.0.37"), executor);
+			CompletableFuture<Optional<ExtractedFileSet>> second = store.extractFileSetAsync(distribution("2.0.0"), executor);
+
+			assertTrue(first.get(20, TimeUnit.SECONDS).isPresent());
+			assertTrue(second.get(20, TimeUnit.SECONDS).isPresent());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Distribution distribution(String version) {
+		return Distribution.detectFor(Version.of(version));
+	}
+
+	static class CountingStore implements IArtifactStore {
+
+		final Map<Distribution, AtomicInteger> extracted = new ConcurrentHashMap<>();
+		final AtomicInteger removed = new AtomicInteger();
+
+		int extracted(Distribution distribution) {
+			return extracted.getOrDefault(distribution, new AtomicInteger()).get();
+		}
+
+		@Override
+		public Optional<ExtractedFileSet> extractFileSet(Distribution distribution) throws IOException {
+			extracted.computeIfAbsent(distribution, key -> new AtomicInteger()).incrementAndGet();
+			return Optional.of(ExtractedFileSet.builder(new File("base"))
+					.baseDirIsGenerated(false)
+					.executable(new File("exe"))
+					.build());
+		}
+
+		@Override
+		public void removeFileSet(Distribution distribution, ExtractedFileSet files) {
+			removed.incrementAndGet();
+		}
+	}
+}
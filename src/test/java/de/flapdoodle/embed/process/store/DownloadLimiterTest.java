@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.DownloadLimits;
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.distribution.ArchiveType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+
+public class DownloadLimiterTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void sameLimitsShouldShareOneLimiter() throws IOException {
+		DownloadLimits limits = DownloadLimits.builder().maxConcurrentDownloads(1).build();
+
+		DownloadLimiter limiter = DownloadLimiter.of(downloadConfig("foo", limits));
+		assertSame(limiter, DownloadLimiter.of(downloadConfig("bar", DownloadLimits.builder().maxConcurrentDownloads(1).build())));
+
+		CompletableFuture<DownloadLimiter.Permit> first = limiter.acquireAsync();
+		CompletableFuture<DownloadLimiter.Permit> second = limiter.acquireAsync();
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+
+		first.join().close();
+		assertTrue(second.isDone());
+		second.join().close();
+	}
+
+	@Test
+	public void downloadShouldNotExceedBandwidth() throws IOException {
+		byte[] content = new byte[512 * 1024];
+		new Random(content.length).nextBytes(content);
+		// one second of burst, so the second half takes one second
+		DownloadLimits limits = DownloadLimits.builder().maxBytesPerSecond(256 * 1024L).build();
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, false)) {
+			long start = System.currentTimeMillis();
+			File download = new UrlConnectionDownloader().download(downloadConfig(server.baseUrl(), limits), distribution());
+			assertTrue(System.currentTimeMillis() - start >= 800);
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+		}
+	}
+
+	private static Distribution distribution() {
+		return Distribution.detectFor(Version.of("1.0.37"));
+	}
+
+	private DownloadConfig downloadConfig(String baseUrl, DownloadLimits limits) throws IOException {
+		return DownloadConfig.builder()
+				.downloadPrefix("prefix")
+				.downloadPath(__ -> baseUrl)
+				.packageResolver(__ -> DistributionPackage.of(ArchiveType.ZIP, FileSet.builder()
+						.addEntry(FileType.Executable, "my-prog.bat")
+						.build(), "archive.zip"))
+				.artifactStorePath(new TempDir(tempFolder))
+				.fileNaming(new UUIDTempNaming())
+				.progressListener(new StandardConsoleProgressListener())
+				.userAgent("foo-bar")
+				.downloadLimits(limits)
+				.build();
+	}
+}
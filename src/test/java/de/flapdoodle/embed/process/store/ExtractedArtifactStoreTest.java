@@ -23,17 +23,22 @@
  */
 package de.flapdoodle.embed.process.store;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.Properties;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,6 +53,7 @@ import de.flapdoodle.embed.process.config.store.PackageResolver;
 import de.flapdoodle.embed.process.distribution.ArchiveType;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.CopyStrategy;
 import de.flapdoodle.embed.process.extract.DirectoryAndExecutableNaming;
 import de.flapdoodle.embed.process.extract.ExtractedFileSet;
 import de.flapdoodle.embed.process.extract.UUIDTempNaming;
@@ -110,6 +116,136 @@ public class ExtractedArtifactStoreTest {
 		assertFalse(extractedExeFile.exists());
 	}
 
+	@Test
+	public void prefetchShouldExtractAndReportFailures() throws IOException {
+		Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+		Distribution missing = Distribution.detectFor(Version.of("1.0.38"));
+
+		Directory artifactDir=new TempDir(tempFolder);
+		Directory extractedArtifactDir=new TempDir(tempFolder);
+
+		File source = new File(this.getClass().getResource("/mocks/mocked-artifact.zip").getPath());
+		Files.copy(source.toPath(), artifactDir.asFile().toPath().resolve(artefactName(distribution)), StandardCopyOption.REPLACE_EXISTING);
+
+		ImmutableExtractedArtifactStore store = ExtractedArtifactStore.builder()
+				.downloader(failingDownloader())
+			.downloadConfig(downloadConfig(artifactDir))
+			.extraction(DirectoryAndExecutableNaming.builder()
+					.directory(extractedArtifactDir)
+					.executableNaming(new UUIDTempNaming())
+					.build())
+			.temp(DirectoryAndExecutableNaming.builder()
+					.directory(new TempDirInPlatformTempDir())
+					.executableNaming(new UUIDTempNaming())
+					.build())
+			.build();
+
+		PrefetchReport report = store.prefetch(Arrays.asList(distribution, missing), 2);
+
+		assertEquals(2, report.results().size());
+		assertEquals(distribution, report.results().get(0).distribution());
+		assertFalse(report.results().get(0).failure().isPresent());
+		assertEquals(1, report.failures().size());
+		assertEquals(missing, report.failures().get(0).distribution());
+
+		File[] extracted = new File(extractedArtifactDir.asFile(), ExtractedArtifactStore.asPath(distribution)).listFiles();
+		assertNotNull(extracted);
+		assertTrue(extracted.length > 0);
+	}
+
+	@Test
+	public void incompleteOrModifiedExtractionShouldBeExtractedAgain() throws IOException {
+		Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+
+		Directory artifactDir=new TempDir(tempFolder);
+		Directory extractedArtifactDir=new TempDir(tempFolder);
+
+		File source = new File(this.getClass().getResource("/mocks/mocked-artifact.zip").getPath());
+		Files.copy(source.toPath(), artifactDir.asFile().toPath().resolve(artefactName(distribution)), StandardCopyOption.REPLACE_EXISTING);
+
+		ImmutableExtractedArtifactStore store = ExtractedArtifactStore.builder()
+				.downloader(failingDownloader())
+			.downloadConfig(downloadConfig(artifactDir))
+			.extraction(DirectoryAndExecutableNaming.builder()
+					.directory(extractedArtifactDir)
+					.executableNaming(new UUIDTempNaming())
+					.build())
+			.temp(DirectoryAndExecutableNaming.builder()
+					.directory(new TempDirInPlatformTempDir())
+					.executableNaming(new UUIDTempNaming())
+					.build())
+			.hashExtractedFiles(true)
+			.build();
+
+		store.extractFileSet(distribution);
+		File destinationDir = new File(extractedArtifactDir.asFile(), ExtractedArtifactStore.asPath(distribution));
+		Properties manifest = new Properties();
+		try (InputStream in = new FileInputStream(new File(destinationDir, ExtractionManifest.MANIFEST))) {
+			manifest.load(in);
+		}
+		assertEquals(2, manifest.size());
+		File library = manifest.stringPropertyNames().stream()
+				.map(path -> new File(destinationDir, path))
+				.filter(file -> file.getName().endsWith(".txt"))
+				.findFirst().get();
+		byte[] content = Files.readAllBytes(library.toPath());
+		assertTrue(store.verify(distribution));
+
+		// same size and modification time, only the hash finds it
+		long lastModified = library.lastModified();
+		byte[] modified = content.clone();
+		modified[0] = (byte) (modified[0] + 1);
+		Files.write(library.toPath(), modified);
+		assertTrue(library.setLastModified(lastModified));
+		store.extractFileSet(distribution);
+		assertArrayEquals(modified, Files.readAllBytes(library.toPath()));
+		assertFalse(store.verify(distribution));
+		store.extractFileSet(distribution);
+		assertArrayEquals(content, Files.readAllBytes(library.toPath()));
+
+		// crashed before the extraction was complete
+		assertTrue(new File(destinationDir, ExtractionManifest.COMPLETE).delete());
+		Files.write(library.toPath(), new byte[1]);
+		store.extractFileSet(distribution);
+		assertArrayEquals(content, Files.readAllBytes(library.toPath()));
+		assertTrue(store.verify(distribution));
+	}
+
+	@Test
+	public void symlinkedFileSetShouldKeepExtractionLeasedUntilRemoved() throws IOException {
+		Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+
+		Directory artifactDir=new TempDir(tempFolder);
+		Directory extractedArtifactDir=new TempDir(tempFolder);
+
+		File source = new File(this.getClass().getResource("/mocks/mocked-artifact.zip").getPath());
+		Files.copy(source.toPath(), artifactDir.asFile().toPath().resolve(artefactName(distribution)), StandardCopyOption.REPLACE_EXISTING);
+
+		ImmutableExtractedArtifactStore store = ExtractedArtifactStore.builder()
+				.downloader(failingDownloader())
+			.downloadConfig(downloadConfig(artifactDir))
+			.extraction(DirectoryAndExecutableNaming.builder()
+					.directory(extractedArtifactDir)
+					.executableNaming(new UUIDTempNaming())
+					.build())
+			.temp(DirectoryAndExecutableNaming.builder()
+					.directory(new TempDir(tempFolder))
+					.executableNaming(new UUIDTempNaming())
+					.build())
+			.copyStrategy(CopyStrategy.SYMLINK)
+			.build();
+
+		File destinationDir = new File(extractedArtifactDir.asFile(), ExtractedArtifactStore.asPath(distribution));
+		ExtractedFileSet first = store.extractFileSet(distribution).get();
+		ExtractedFileSet second = store.extractFileSet(distribution).get();
+		assertTrue(StoreAccess.isLeased(destinationDir));
+
+		store.removeFileSet(distribution, first);
+		assertTrue(StoreAccess.isLeased(destinationDir));
+		store.removeFileSet(distribution, second);
+		assertFalse(StoreAccess.isLeased(destinationDir));
+	}
+
 	private static File fileOf(File base, File relative) {
 		return de.flapdoodle.embed.process.io.file.Files.fileOf(base,relative);
 	}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.distribution.ArchiveType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+
+public class HttpClientDownloaderTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void downloadSomeDistributionsAtOnce() throws IOException {
+		byte[] content = new byte[256 * 1024];
+		new Random(1).nextBytes(content);
+
+		try (LocalHttpServer server = new LocalHttpServer("/", content, false)) {
+			DownloadConfig downloadConfig = DownloadConfig.builder()
+					.downloadPrefix("prefix")
+					.downloadPath(__ -> server.baseUrl())
+					.packageResolver(distribution -> DistributionPackage.of(ArchiveType.ZIP, FileSet.builder()
+							.addEntry(FileType.Executable, "my-prog.bat")
+							.build(), "archive-" + distribution.version().asInDownloadPath() + ".zip"))
+					.artifactStorePath(new TempDir(tempFolder))
+					.fileNaming(new UUIDTempNaming())
+					.progressListener(new StandardConsoleProgressListener())
+					.userAgent("foo-bar")
+					.build();
+
+			HttpClientDownloader downloader = new HttpClientDownloader();
+			CompletableFuture<File> first = downloader.downloadAsync(downloadConfig, Distribution.detectFor(Version.of("1.0")));
+			CompletableFuture<File> second = downloader.downloadAsync(downloadConfig, Distribution.detectFor(Version.of("2.0")));
+
+			assertArrayEquals(content, Files.readAllBytes(first.join().toPath()));
+			assertArrayEquals(content, Files.readAllBytes(second.join().toPath()));
+		}
+	}
+}
@@ -23,13 +23,17 @@
  */
 package de.flapdoodle.embed.process.store;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -40,7 +44,9 @@ import de.flapdoodle.embed.process.config.store.DistributionPackage;
 import de.flapdoodle.embed.process.config.store.DownloadConfig;
 import de.flapdoodle.embed.process.config.store.FileSet;
 import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.config.store.ImmutableDownloadConfig;
 import de.flapdoodle.embed.process.config.store.PackageResolver;
+import de.flapdoodle.embed.process.config.store.StoreLayout;
 import de.flapdoodle.embed.process.distribution.ArchiveType;
 import de.flapdoodle.embed.process.distribution.Distribution;
 import de.flapdoodle.embed.process.distribution.Version;
@@ -69,6 +75,80 @@ public class LocalArtifactStoreTest {
                                         source));
   }
 
+  @Test
+  public void contentAddressedStoreShouldKeepSameArchiveOnce() throws IOException {
+    Distribution first = Distribution.detectFor(Version.of("1.0.37"));
+    Distribution second = Distribution.detectFor(Version.of("1.0.38"));
+
+    Directory artifactDir = new TempDir(tempFolder);
+    DownloadConfig downloadConfig = ImmutableDownloadConfig.copyOf(downloadConfig(artifactDir))
+                                                  .withStoreLayout(StoreLayout.ContentAddressed);
+
+    assertFalse(LocalArtifactStore.checkArtifact(downloadConfig, first));
+
+    File source = new File(this.getClass().getResource("/mocks/mocked-artifact.zip").getPath());
+    assertTrue(LocalArtifactStore.store(downloadConfig, first, copyOf(source)));
+    assertTrue(LocalArtifactStore.store(downloadConfig, second, copyOf(source)));
+
+    assertTrue(LocalArtifactStore.checkArtifact(downloadConfig, first));
+    assertTrue(LocalArtifactStore.checkArtifact(downloadConfig, second));
+    assertEquals(LocalArtifactStore.getArtifact(downloadConfig, first), LocalArtifactStore.getArtifact(downloadConfig, second));
+
+    File[] blobs = new File(artifactDir.asFile(), ContentAddressedStore.BLOB_DIR)
+        .listFiles((dir, name) -> !name.equals(ContentAddressedStore.INDEX));
+    assertEquals(1, blobs.length);
+    assertTrue(Files.isSameFile(blobs[0].toPath(), artifactDir.asFile().toPath().resolve(artifactName(first))));
+    assertTrue(Files.isSameFile(blobs[0].toPath(), artifactDir.asFile().toPath().resolve(artifactName(second))));
+  }
+
+  @Test
+  public void contentAddressedStoreShouldDropEntryWithMissingBlob() throws IOException {
+    Distribution distribution = Distribution.detectFor(Version.of("1.0.37"));
+
+    Directory artifactDir = new TempDir(tempFolder);
+    DownloadConfig downloadConfig = ImmutableDownloadConfig.copyOf(downloadConfig(artifactDir))
+                                                  .withStoreLayout(StoreLayout.ContentAddressed);
+
+    File source = new File(this.getClass().getResource("/mocks/mocked-artifact.zip").getPath());
+    assertTrue(LocalArtifactStore.store(downloadConfig, distribution, copyOf(source)));
+    File blob = LocalArtifactStore.getArtifact(downloadConfig, distribution);
+    Files.delete(blob.toPath());
+
+    assertNull(LocalArtifactStore.getArtifact(downloadConfig, distribution));
+    assertFalse(LocalArtifactStore.checkArtifact(downloadConfig, distribution));
+
+    assertTrue(LocalArtifactStore.store(downloadConfig, distribution, copyOf(source)));
+    assertEquals(blob, LocalArtifactStore.getArtifact(downloadConfig, distribution));
+    assertTrue(blob.isFile());
+  }
+
+  @Test
+  public void contentAddressedStoreShouldUseTheShaVerifiedWhileDownloading() throws IOException {
+    Distribution first = Distribution.detectFor(Version.of("1.0.37"));
+    Distribution second = Distribution.detectFor(Version.of("1.0.38"));
+
+    Directory artifactDir = new TempDir(tempFolder);
+    DownloadConfig downloadConfig = ImmutableDownloadConfig.copyOf(downloadConfig(artifactDir))
+                                                  .withStoreLayout(StoreLayout.ContentAddressed);
+
+    File source = new File(this.getClass().getResource("/mocks/mocked-artifact.zip").getPath());
+    String sha256 = Checksum.sha256(source);
+    String notReadAgain = sha256.replace('a', 'b').replace('0', '1');
+    assertTrue(LocalArtifactStore.store(downloadConfig, first, Checksum.verified(copyOf(source), notReadAgain)));
+    assertEquals(notReadAgain, LocalArtifactStore.getArtifact(downloadConfig, first).getName());
+
+    File changed = Checksum.verified(copyOf(source), notReadAgain);
+    assertTrue(changed.setLastModified(changed.lastModified() - 10000));
+    assertTrue(LocalArtifactStore.store(downloadConfig, second, changed));
+    assertEquals(sha256, LocalArtifactStore.getArtifact(downloadConfig, second).getName());
+  }
+
+  private File copyOf(File source) throws IOException {
+    File copy = tempFolder.newFile();
+    Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return copy;
+  }
+
   private static String artifactName(Distribution distribution) {
     return ExtractedArtifactStore.asPath(distribution) + ".zip";
   }
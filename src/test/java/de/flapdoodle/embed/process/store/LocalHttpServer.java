@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * minimal http server serving one file, stand-in for a distribution mirror
+ */
+class LocalHttpServer implements AutoCloseable {
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	private final HttpServer server;
+	private final byte[] content;
+	private final boolean supportRanges;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private final AtomicInteger responsesToBreak = new AtomicInteger();
+	private final AtomicInteger responsesToFail = new AtomicInteger();
+	private volatile int breakAfter = 0;
+	private volatile long delay = 0;
+
+	LocalHttpServer(String path, byte[] content, boolean supportRanges) throws IOException {
+		this.content = content;
+		this.supportRanges = supportRanges;
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "local-http-server");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		this.server.createContext(path, this::handle);
+		this.server.start();
+	}
+
+	/**
+	 * serves content on another path, without ranges, delays or breaks
+	 */
+	LocalHttpServer alsoServe(String path, byte[] content) {
+		server.createContext(path, exchange -> {
+			try {
+				exchange.sendResponseHeaders(200, content.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(content);
+				}
+			} finally {
+				exchange.close();
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * the next responses stop after some bytes, like a dropped connection
+	 */
+	LocalHttpServer breakResponses(int count, int afterBytes) {
+		responsesToBreak.set(count);
+		breakAfter = afterBytes;
+		return this;
+	}
+
+	/**
+	 * the next responses are server errors (503)
+	 */
+	LocalHttpServer failResponses(int count) {
+		responsesToFail.set(count);
+		return this;
+	}
+
+	/**
+	 * every response waits before it is sent, like a slow mirror
+	 */
+	LocalHttpServer delayResponses(long millis) {
+		delay = millis;
+		return this;
+	}
+
+	String baseUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	int requests() {
+		return requests.get();
+	}
+
+	int rangeRequests() {
+		return rangeRequests.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ix) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (responsesToFail.getAndDecrement() > 0) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			if (supportRanges) {
+				exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+			}
+			exchange.getResponseHeaders().add("ETag", "\"" + content.length + "\"");
+
+			boolean head = "HEAD".equals(exchange.getRequestMethod());
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			Matcher matcher = range != null ? RANGE.matcher(range) : null;
+
+			int start = 0;
+			int end = content.length - 1;
+			int status = 200;
+			if (supportRanges && matcher != null && matcher.matches()) {
+				rangeRequests.incrementAndGet();
+				start = Integer.parseInt(matcher.group(1));
+				if (!matcher.group(2).isEmpty()) {
+					end = Math.min(end, Integer.parseInt(matcher.group(2)));
+				}
+				status = 206;
+				exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+			}
+
+			int length = end - start + 1;
+			if (head) {
+				exchange.getResponseHeaders().add("Content-Length", "" + length);
+				exchange.sendResponseHeaders(status, -1);
+			} else {
+				exchange.sendResponseHeaders(status, length);
+				OutputStream out = exchange.getResponseBody();
+				if (responsesToBreak.getAndDecrement() > 0) {
+					out.write(content, start, Math.min(length, breakAfter));
+					out.flush();
+				} else {
+					out.write(content, start, length);
+					out.close();
+				}
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.config.store.SameDownloadPathsForEveryDistribution;
+import de.flapdoodle.embed.process.distribution.ArchiveType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+
+public class MirrorDownloaderTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void stalledMirrorShouldBeHedgedAndRankedDown() throws IOException {
+		byte[] content = randomContent(256 * 1024);
+		MirrorDownloader downloader = new MirrorDownloader(0.9, 200, new MirrorStatistics());
+
+		try (LocalHttpServer slow = new LocalHttpServer("/archive.zip", content, false).delayResponses(3000);
+				LocalHttpServer fast = new LocalHttpServer("/archive.zip", content, false)) {
+			DownloadConfig downloadConfig = downloadConfig(new SameDownloadPathsForEveryDistribution(slow.baseUrl(), fast.baseUrl()));
+
+			long start = System.currentTimeMillis();
+			File download = downloader.download(downloadConfig, distribution());
+			assertTrue(System.currentTimeMillis() - start < 2500);
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(1, slow.requests());
+			assertEquals(1, fast.requests());
+
+			download = downloader.download(downloadConfig, distribution());
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(1, slow.requests());
+			assertEquals(2, fast.requests());
+		}
+	}
+
+	@Test
+	public void unreachableMirrorShouldBeSkipped() throws IOException {
+		byte[] content = randomContent(256 * 1024);
+		MirrorDownloader downloader = new MirrorDownloader(0.9, 10000, new MirrorStatistics());
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, false)) {
+			DownloadConfig downloadConfig = downloadConfig(new SameDownloadPathsForEveryDistribution(
+					"http://localhost:" + unusedPort() + "/", server.baseUrl()));
+
+			File download = downloader.download(downloadConfig, distribution());
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(1, server.requests());
+		}
+	}
+
+	@Test
+	public void checksumShouldBeReadFromTheMirrorOfTheDownload() throws IOException {
+		byte[] content = randomContent(256 * 1024);
+		MirrorDownloader downloader = new MirrorDownloader(0.9, 10000, new MirrorStatistics());
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, false)
+				.alsoServe("/archive.zip.sha256", (Checksum.hex(Checksum.sha256().digest(content)) + "  archive.zip\n").getBytes(StandardCharsets.US_ASCII))) {
+			DownloadConfig downloadConfig = DownloadConfig.builder()
+					.from(downloadConfig(new SameDownloadPathsForEveryDistribution("http://localhost:" + unusedPort() + "/", server.baseUrl())))
+					.packageResolver(__ -> DistributionPackage.builder()
+							.archiveType(ArchiveType.ZIP)
+							.fileSet(FileSet.builder()
+									.addEntry(FileType.Executable, "my-prog.bat")
+									.build())
+							.archivePath("archive.zip")
+							.sha256Path("archive.zip.sha256")
+							.build())
+					.build();
+
+			File download = downloader.download(downloadConfig, distribution());
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+		}
+	}
+
+	private static int unusedPort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static byte[] randomContent(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	private static Distribution distribution() {
+		return Distribution.detectFor(Version.of("1.0.37"));
+	}
+
+	private DownloadConfig downloadConfig(SameDownloadPathsForEveryDistribution downloadPath) throws IOException {
+		return DownloadConfig.builder()
+				.downloadPrefix("prefix")
+				.downloadPath(downloadPath)
+				.packageResolver(__ -> DistributionPackage.of(ArchiveType.ZIP, FileSet.builder()
+						.addEntry(FileType.Executable, "my-prog.bat")
+						.build(), "archive.zip"))
+				.artifactStorePath(new TempDir(tempFolder))
+				.fileNaming(new UUIDTempNaming())
+				.progressListener(new StandardConsoleProgressListener())
+				.userAgent("foo-bar")
+				.build();
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.distribution.ArchiveType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.progress.ProgressListener;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+
+public class RangeDownloaderTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void downloadWithRangesShouldUseOneRequestPerPart() throws IOException {
+		byte[] content = randomContent(1024 * 1024 + 17);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true)) {
+			File download = new RangeDownloader(4, 256 * 1024, failingDownloader())
+					.download(downloadConfig(server.baseUrl()), distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(4, server.rangeRequests());
+			download.delete();
+		}
+	}
+
+	@Test
+	public void serverWithoutRangeSupportShouldFallBackToSingleStream() throws IOException {
+		byte[] content = randomContent(1024 * 1024);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, false)) {
+			File download = new RangeDownloader(4, 256 * 1024, new UrlConnectionDownloader())
+					.download(downloadConfig(server.baseUrl()), distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(0, server.rangeRequests());
+			download.delete();
+		}
+	}
+
+	@Test
+	public void failedRangedDownloadShouldFallBackWithinOneStartedDownload() throws IOException {
+		byte[] content = randomContent(1024 * 1024);
+		List<String> calls = new CopyOnWriteArrayList<>();
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true).breakResponses(1, 100 * 1024)) {
+			File download = new RangeDownloader(4, 256 * 1024, new UrlConnectionDownloader())
+					.download(downloadConfig(server.baseUrl(), new StandardConsoleProgressListener() {
+						@Override
+						public void start(String label) {
+							calls.add("start");
+						}
+
+						@Override
+						public void done(String label) {
+							calls.add("done");
+						}
+					}), distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(Arrays.asList("start", "done"), calls);
+			download.delete();
+		}
+	}
+
+	private static byte[] randomContent(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	private static Distribution distribution() {
+		return Distribution.detectFor(Version.of("1.0.37"));
+	}
+
+	private DownloadConfig downloadConfig(String baseUrl) throws IOException {
+		return downloadConfig(baseUrl, new StandardConsoleProgressListener());
+	}
+
+	private DownloadConfig downloadConfig(String baseUrl, ProgressListener progress) throws IOException {
+		return DownloadConfig.builder()
+				.downloadPrefix("prefix")
+				.downloadPath(__ -> baseUrl)
+				.packageResolver(__ -> DistributionPackage.of(ArchiveType.ZIP, FileSet.builder()
+						.addEntry(FileType.Executable, "my-prog.bat")
+						.build(), "archive.zip"))
+				.artifactStorePath(new TempDir(tempFolder))
+				.fileNaming(new UUIDTempNaming())
+				.progressListener(progress)
+				.userAgent("foo-bar")
+				.build();
+	}
+
+	private static Downloader failingDownloader() {
+		return new Downloader() {
+
+			@Override
+			public String getDownloadUrl(DownloadConfig runtime, Distribution distribution) {
+				throw new RuntimeException("should not be called (" + distribution + ")");
+			}
+
+			@Override
+			public File download(DownloadConfig runtime, Distribution distribution) {
+				throw new RuntimeException("should not be called (" + distribution + ")");
+			}
+		};
+	}
+}
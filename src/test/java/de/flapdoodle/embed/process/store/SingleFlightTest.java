@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+	@Test
+	public void concurrentCallsShouldShareOneResult() throws Exception {
+		SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Object>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(() -> singleFlight.run("key", () -> {
+					calls.incrementAndGet();
+					await(release);
+					return new Object();
+				})));
+			}
+			// give all callers time to queue up behind the first one
+			Thread.sleep(200);
+			release.countDown();
+
+			Object first = results.get(0).get(10, TimeUnit.SECONDS);
+			for (Future<Object> result : results) {
+				assertSame(first, result.get(10, TimeUnit.SECONDS));
+			}
+			assertEquals(1, calls.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void failedCallShouldNotBeCached() throws IOException {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>();
+		try {
+			singleFlight.run("key", () -> {
+				throw new IOException("failed");
+			});
+		} catch (IOException iox) {
+			assertEquals("failed", iox.getMessage());
+		}
+		assertEquals("ok", singleFlight.run("key", () -> "ok"));
+	}
+
+	private static void await(CountDownLatch latch) throws IOException {
+		try {
+			latch.await();
+		} catch (InterruptedException ix) {
+			throw new IOException(ix);
+		}
+	}
+}
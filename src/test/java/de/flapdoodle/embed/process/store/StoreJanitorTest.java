@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+
+public class StoreJanitorTest {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void leastRecentlyUsedArchivesShouldBeEvictedUntilBelowMaxBytes() throws IOException {
+		TempDir store = new TempDir(tempFolder);
+		File oldest = archive(store.asFile(), "a/oldest.tgz", 3 * HOUR);
+		File older = archive(store.asFile(), "b/older.tgz", 2 * HOUR);
+		File newest = archive(store.asFile(), "newest.tgz", HOUR);
+		File lock = archive(store.asFile(), "newest.tgz" + StoreLock.LOCK_SUFFIX, 4 * HOUR);
+		File part = archive(store.asFile(), "next.tgz" + PartialDownload.PART_SUFFIX, 4 * HOUR);
+
+		JanitorReport report = StoreJanitor.builder()
+				.addArchives(store)
+				.maxBytes(150L)
+				.build()
+				.run();
+
+		assertEquals(Arrays.asList(oldest.getAbsoluteFile(), older.getAbsoluteFile()), report.evicted());
+		assertEquals(200, report.freedBytes());
+		assertEquals(100, report.remainingBytes());
+		assertFalse(oldest.exists());
+		assertFalse(older.exists());
+		assertFalse(StoreLock.lockFileFor(oldest).exists());
+		assertFalse(StoreLock.lockFileFor(older).exists());
+		assertTrue(newest.isFile());
+		assertTrue(lock.isFile());
+		assertTrue(part.isFile());
+	}
+
+	@Test
+	public void expiredTreesShouldBeEvictedIfNotInUse() throws IOException {
+		TempDir extractions = new TempDir(tempFolder);
+		File expired = tree(extractions.asFile(), "expired", 3 * HOUR);
+		File leased = tree(extractions.asFile(), "leased", 3 * HOUR);
+		File locked = tree(extractions.asFile(), "locked", 3 * HOUR);
+		File recent = tree(extractions.asFile(), "recent", 0);
+
+		StoreJanitor janitor = StoreJanitor.builder()
+				.addExtractions(extractions)
+				.maxAge(HOUR)
+				.build();
+
+		JanitorReport report;
+		try (StoreAccess.Lease lease = StoreAccess.lease(leased); StoreLock lock = StoreLock.lock(locked.getAbsoluteFile(), 1000)) {
+			// leasing counts as access, make it look old again
+			assertTrue(StoreAccess.accessFileFor(leased).setLastModified(System.currentTimeMillis() - 3 * HOUR));
+			report = janitor.run();
+		}
+
+		assertEquals(Collections.singletonList(expired.getAbsoluteFile()), report.evicted());
+		assertFalse(expired.exists());
+		assertFalse(StoreLock.lockFileFor(expired).exists());
+		assertTrue(leased.isDirectory());
+		assertTrue(locked.isDirectory());
+		assertTrue(recent.isDirectory());
+
+		assertEquals(new HashSet<>(Arrays.asList(leased.getAbsoluteFile(), locked.getAbsoluteFile())), new HashSet<>(janitor.run().evicted()));
+	}
+
+	@Test
+	public void leaseShouldRecordAccessNextToTheEntry() throws IOException {
+		TempDir store = new TempDir(tempFolder);
+		File older = archive(store.asFile(), "older.tgz", 2 * HOUR);
+		File used = archive(store.asFile(), "used.tgz", 3 * HOUR);
+		long modified = used.lastModified();
+
+		StoreAccess.lease(used).close();
+
+		assertEquals(modified, used.lastModified());
+		assertTrue(StoreAccess.accessFileFor(used).isFile());
+
+		JanitorReport report = StoreJanitor.builder()
+				.addArchives(store)
+				.maxBytes(100L)
+				.build()
+				.run();
+
+		assertEquals(Collections.singletonList(older.getAbsoluteFile()), report.evicted());
+		assertTrue(used.isFile());
+		assertTrue(StoreAccess.accessFileFor(used).isFile());
+	}
+
+	private static File archive(File storeDir, String archivePath, long age) throws IOException {
+		File file = new File(storeDir, archivePath);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), new byte[100]);
+		assertTrue(file.setLastModified(System.currentTimeMillis() - age));
+		return file;
+	}
+
+	private static File tree(File extractionDir, String name, long age) throws IOException {
+		File tree = new File(extractionDir, name);
+		archive(tree, "bin/prog", age);
+		assertTrue(tree.setLastModified(System.currentTimeMillis() - age));
+		return tree;
+	}
+}
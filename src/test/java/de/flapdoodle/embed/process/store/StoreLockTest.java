@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StoreLockTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void secondLockShouldWaitUntilFirstIsReleased() throws Exception {
+		File archive = new File(tempFolder.getRoot(), "archive.zip");
+
+		CompletableFuture<Long> waited;
+		try (StoreLock lock = StoreLock.lock(archive, 1000)) {
+			waited = CompletableFuture.supplyAsync(() -> {
+				long start = System.currentTimeMillis();
+				try (StoreLock other = StoreLock.lock(archive, 10000)) {
+					return System.currentTimeMillis() - start;
+				} catch (IOException iox) {
+					throw new RuntimeException(iox);
+				}
+			});
+			Thread.sleep(300);
+		}
+		assertTrue(waited.get(10, TimeUnit.SECONDS) >= 250);
+		assertTrue(StoreLock.lockFileFor(archive).isFile());
+	}
+
+	@Test
+	public void lockShouldFailAfterTimeout() throws Exception {
+		File archive = new File(tempFolder.getRoot(), "archive.zip");
+
+		try (StoreLock lock = StoreLock.lock(archive, 1000)) {
+			long start = System.currentTimeMillis();
+			CompletableFuture<StoreLock> other = CompletableFuture.supplyAsync(() -> {
+				try {
+					return StoreLock.lock(archive, 200);
+				} catch (IOException iox) {
+					throw new UncheckedIOException(iox);
+				}
+			});
+			try {
+				other.get(10, TimeUnit.SECONDS).close();
+				fail("should not be reached");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof UncheckedIOException);
+				assertTrue(System.currentTimeMillis() - start >= 200);
+			}
+		}
+	}
+
+	@Test
+	public void waitingLockShouldMoveToTheCurrentLockFileIfTheOldOneIsDeleted() throws Exception {
+		File archive = new File(tempFolder.getRoot(), "archive.zip");
+
+		CompletableFuture<StoreLock> waiting;
+		try (StoreLock lock = StoreLock.lock(archive, 1000)) {
+			waiting = CompletableFuture.supplyAsync(() -> {
+				try {
+					return StoreLock.lock(archive, 10000);
+				} catch (IOException iox) {
+					throw new RuntimeException(iox);
+				}
+			});
+			Thread.sleep(300);
+			lock.deleteLockFile();
+			assertFalse(StoreLock.lockFileFor(archive).exists());
+		}
+
+		try (StoreLock other = waiting.get(10, TimeUnit.SECONDS)) {
+			assertTrue(StoreLock.lockFileFor(archive).isFile());
+			assertFalse(StoreLock.tryLock(archive).isPresent());
+		}
+	}
+
+	@Test
+	public void staleLockFileShouldBeReplaced() throws Exception {
+		File archive = new File(tempFolder.getRoot(), "archive.zip");
+		File lockFile = StoreLock.lockFileFor(archive);
+		Files.write(lockFile.toPath(), new byte[] { 1 });
+
+		Optional<StoreLock> lock = StoreLock.tryLock(archive);
+		assertTrue(lock.isPresent());
+		try (StoreLock ignored = lock.get()) {
+			assertEquals(0, lockFile.length());
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * compares the download transfer modes, a local file stands in for the http connection
+ * ('stream' hides the file channel like a socket stream does, 'channel' does not)
+ *
+ * run with main()
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferModeBenchmark {
+
+	private static final int SIZE = 64 * 1024 * 1024;
+
+	@Param({"STREAM", "TRANSFER_FROM", "DIRECT_BUFFER"})
+	public TransferMode mode;
+
+	@Param({"stream", "channel"})
+	public String source;
+
+	private File served;
+	private File destination;
+
+	@Setup(Level.Trial)
+	public void createServedFile() throws IOException {
+		served = File.createTempFile("served", ".bin");
+		destination = File.createTempFile("download", ".bin");
+		byte[] chunk = new byte[1024 * 1024];
+		Random random = new Random(1);
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(served))) {
+			for (int i = 0; i < SIZE / chunk.length; i++) {
+				random.nextBytes(chunk);
+				out.write(chunk);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFiles() {
+		served.delete();
+		destination.delete();
+	}
+
+	@Benchmark
+	public long download() throws IOException {
+		try (InputStream in = source();
+				FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			return mode.transfer(in, out, bytes -> {});
+		}
+	}
+
+	private InputStream source() throws IOException {
+		FileInputStream in = new FileInputStream(served);
+		return "stream".equals(source) ? new FilterInputStream(in) {} : in;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(TransferModeBenchmark.class.getSimpleName())
+				.build())
+				.run();
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2011
+ *   Michael Mosmann <michael@mosmann.de>
+ *   Martin Jöhren <m.joehren@googlemail.com>
+ *
+ * with contributions from
+ * 	konstantin-ba@github,
+	Archimedes Trajano (trajano@github),
+	Kevin D. Keck (kdkeck@github),
+	Ben McCann (benmccann@github)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.flapdoodle.embed.process.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.flapdoodle.embed.process.TempDir;
+import de.flapdoodle.embed.process.config.store.DistributionPackage;
+import de.flapdoodle.embed.process.config.store.DownloadConfig;
+import de.flapdoodle.embed.process.config.store.FileSet;
+import de.flapdoodle.embed.process.config.store.FileType;
+import de.flapdoodle.embed.process.config.store.RetryConfig;
+import de.flapdoodle.embed.process.distribution.ArchiveType;
+import de.flapdoodle.embed.process.distribution.Distribution;
+import de.flapdoodle.embed.process.distribution.Version;
+import de.flapdoodle.embed.process.extract.UUIDTempNaming;
+import de.flapdoodle.embed.process.io.directories.Directory;
+import de.flapdoodle.embed.process.io.progress.StandardConsoleProgressListener;
+
+public class UrlConnectionDownloaderTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void brokenDownloadShouldBeResumedOnRetry() throws IOException {
+		byte[] content = randomContent(512 * 1024);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true).breakResponses(1, 100 * 1024)) {
+			DownloadConfig downloadConfig = downloadConfig(server.baseUrl(), new TempDir(tempFolder), RetryConfig.builder()
+					.maxRetries(2)
+					.initialDelay(10)
+					.maxDelay(100)
+					.build());
+
+			File download = new UrlConnectionDownloader().download(downloadConfig, distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(2, server.requests());
+			assertEquals(1, server.rangeRequests());
+		}
+	}
+
+	@Test
+	public void brokenDownloadShouldBeResumedOnNextCall() throws IOException {
+		byte[] content = randomContent(512 * 1024);
+		Directory artifactStore = new TempDir(tempFolder);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true).breakResponses(1, 100 * 1024)) {
+			DownloadConfig downloadConfig = downloadConfig(server.baseUrl(), artifactStore, RetryConfig.none());
+
+			try {
+				new UrlConnectionDownloader().download(downloadConfig, distribution());
+				fail("should not be reached");
+			} catch (IOException iox) {
+				assertTrue(new File(artifactStore.asFile(), "archive.zip" + PartialDownload.PART_SUFFIX).isFile());
+				assertTrue(new File(artifactStore.asFile(), "archive.zip" + PartialDownload.JOURNAL_SUFFIX).isFile());
+			}
+
+			File download = new UrlConnectionDownloader().download(downloadConfig, distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(1, server.rangeRequests());
+		}
+	}
+
+	@Test
+	public void resumedDownloadShouldMatchChecksum() throws IOException {
+		byte[] content = randomContent(512 * 1024);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true).breakResponses(1, 100 * 1024)) {
+			DownloadConfig downloadConfig = downloadConfig(server.baseUrl(), new TempDir(tempFolder), RetryConfig.builder()
+					.maxRetries(2)
+					.initialDelay(10)
+					.maxDelay(100)
+					.build(), Optional.of(Checksum.hex(Checksum.sha256().digest(content))));
+
+			File download = new UrlConnectionDownloader().download(downloadConfig, distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(1, server.rangeRequests());
+		}
+	}
+
+	@Test
+	public void downloadWithWrongChecksumShouldBeDeleted() throws IOException {
+		byte[] content = randomContent(512 * 1024);
+		Directory artifactStore = new TempDir(tempFolder);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true)) {
+			DownloadConfig downloadConfig = downloadConfig(server.baseUrl(), artifactStore, RetryConfig.none(),
+					Optional.of(Checksum.hex(Checksum.sha256().digest(new byte[0]))));
+
+			try {
+				new UrlConnectionDownloader().download(downloadConfig, distribution());
+				fail("should not be reached");
+			} catch (Checksum.ChecksumMismatchException cmx) {
+				assertFalse(new File(artifactStore.asFile(), "archive.zip" + PartialDownload.PART_SUFFIX).exists());
+				assertFalse(new File(artifactStore.asFile(), "archive.zip" + PartialDownload.JOURNAL_SUFFIX).exists());
+			}
+		}
+	}
+
+	@Test
+	public void serverErrorShouldBeRetried() throws IOException {
+		byte[] content = randomContent(512 * 1024);
+
+		try (LocalHttpServer server = new LocalHttpServer("/archive.zip", content, true).failResponses(1)) {
+			DownloadConfig downloadConfig = downloadConfig(server.baseUrl(), new TempDir(tempFolder), RetryConfig.builder()
+					.maxRetries(2)
+					.initialDelay(10)
+					.maxDelay(100)
+					.build());
+
+			File download = new UrlConnectionDownloader().download(downloadConfig, distribution());
+
+			assertArrayEquals(content, Files.readAllBytes(download.toPath()));
+			assertEquals(2, server.requests());
+		}
+	}
+
+	@Test
+	public void missingArchiveShouldFailWithoutRetry() throws IOException {
+		try (LocalHttpServer server = new LocalHttpServer("/other.zip", new byte[0], true)) {
+			DownloadConfig downloadConfig = downloadConfig(server.baseUrl(), new TempDir(tempFolder), RetryConfig.builder()
+					.maxRetries(3)
+					.initialDelay(10000)
+					.maxDelay(10000)
+					.build());
+
+			long start = System.currentTimeMillis();
+			try {
+				new UrlConnectionDownloader().download(downloadConfig, distribution());
+				fail("should not be reached");
+			} catch (IOException iox) {
+				assertFalse(TransientDownloadException.isTransient(iox));
+				assertTrue(System.currentTimeMillis() - start < 5000);
+			}
+		}
+	}
+
+	private static byte[] randomContent(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	private static Distribution distribution() {
+		return Distribution.detectFor(Version.of("1.0.37"));
+	}
+
+	private static DownloadConfig downloadConfig(String baseUrl, Directory artifactStore, RetryConfig retryConfig) {
+		return downloadConfig(baseUrl, artifactStore, retryConfig, Optional.empty());
+	}
+
+	private static DownloadConfig downloadConfig(String baseUrl, Directory artifactStore, RetryConfig retryConfig,
+			Optional<String> expectedSha256) {
+		return DownloadConfig.builder()
+				.downloadPrefix("prefix")
+				.downloadPath(__ -> baseUrl)
+				.packageResolver(__ -> DistributionPackage.builder()
+						.archiveType(ArchiveType.ZIP)
+						.fileSet(FileSet.builder()
+								.addEntry(FileType.Executable, "my-prog.bat")
+								.build())
+						.archivePath("archive.zip")
+						.expectedSha256(expectedSha256)
+						.build())
+				.artifactStorePath(artifactStore)
+				.fileNaming(new UUIDTempNaming())
+				.progressListener(new StandardConsoleProgressListener())
+				.userAgent("foo-bar")
+				.retryConfig(retryConfig)
+				.build();
+	}
+}